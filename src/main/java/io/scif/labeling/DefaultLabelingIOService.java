@@ -32,42 +32,109 @@ package io.scif.labeling;
 import static io.scif.labeling.utils.LabelingUtil.TIF_ENDING;
 
 import com.google.gson.Gson;
-import com.google.gson.reflect.TypeToken;
+import com.google.gson.JsonElement;
+import com.google.gson.TypeAdapter;
+import com.google.gson.stream.JsonWriter;
+import com.sun.management.ThreadMXBean;
 
+import io.scif.FormatException;
+import io.scif.ImageMetadata;
+import io.scif.config.SCIFIOConfig;
+import io.scif.formats.tiff.TiffParser;
+import io.scif.img.ImageRegion;
+import io.scif.img.Range;
+import io.scif.labeling.config.LabelingIOConfig;
 import io.scif.labeling.data.Container;
+import io.scif.labeling.data.LabelStatistics;
+import io.scif.labeling.data.LabelingDescriptor;
+import io.scif.labeling.data.MultiSourceLabeling;
+import io.scif.labeling.data.PhaseTiming;
+import io.scif.labeling.data.PhaseTiming.Phase;
+import io.scif.labeling.utils.BatchIterator;
+import io.scif.labeling.utils.BufferByteBank;
+import io.scif.labeling.utils.IndexImgTypes;
+import io.scif.labeling.utils.LabelCodecRegistry;
+import io.scif.labeling.utils.LabelingBundle;
+import io.scif.labeling.utils.LabelingCache;
 import io.scif.labeling.utils.LabelingUtil;
+import io.scif.labeling.utils.TiffStreamWriter;
 import io.scif.services.DatasetIOService;
+import io.scif.services.InitializeService;
+import io.scif.util.FormatTools;
 
-import java.io.FileWriter;
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UncheckedIOException;
 import java.io.Reader;
 import java.io.Writer;
-import java.lang.reflect.Type;
+import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
-import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.BiFunction;
+import java.util.function.IntFunction;
+import java.util.function.IntPredicate;
 import java.util.function.LongFunction;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
 import java.util.function.ToLongFunction;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
 
 import net.imagej.ImageJService;
+import net.imagej.axis.AxisType;
+import net.imagej.axis.CalibratedAxis;
+import net.imglib2.Interval;
 import net.imglib2.RandomAccessibleInterval;
-import net.imglib2.img.Img;
-import net.imglib2.img.ImgView;
+import net.imglib2.labeling.data.LabelSetTable;
 import net.imglib2.labeling.data.LabelingData;
+import net.imglib2.labeling.data.LabelingDataBinaryCodec;
+import net.imglib2.labeling.data.LabelingDataCodec;
+import net.imglib2.labeling.data.SetStatistics;
 import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.roi.labeling.LabelingMapping;
 import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 
 import org.scijava.Context;
+import org.scijava.io.handle.DataHandle;
+import org.scijava.io.handle.DataHandleService;
+import org.scijava.io.location.BytesLocation;
+import org.scijava.io.location.FileLocation;
+import org.scijava.io.location.Location;
 import org.scijava.plugin.Parameter;
 import org.scijava.plugin.Plugin;
 import org.scijava.service.AbstractService;
+import org.scijava.thread.ThreadService;
 
 @Plugin(type = ImageJService.class)
 public class DefaultLabelingIOService extends AbstractService implements
@@ -78,13 +145,90 @@ public class DefaultLabelingIOService extends AbstractService implements
 	private Context context;
 	@Parameter
 	private DatasetIOService datasetIOService;
+	@Parameter
+	private InitializeService initializeService;
+	@Parameter
+	private DataHandleService dataHandleService;
+	@Parameter
+	private ThreadService threadService;
+	private final LabelCodecRegistry labelCodecs = new LabelCodecRegistry();
 	private final Gson gson = new Gson();
+	private final LabelingCache cache = new LabelingCache();
+	private final List<LabelingIOListener> listeners =
+		new CopyOnWriteArrayList<>();
 
 	@Override
 	public <T, I extends IntegerType<I>> ImgLabeling<T, I> load(final String file,
 		final Class<T> labelType, final Class<I> backingType) throws IOException
 	{
-		return this.getImgLabeling(file, labelType, backingType);
+		return this.load(file, labelType, backingType, new LabelingIOConfig());
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> ImgLabeling<T, I> load(final String file,
+		final Class<T> labelType, final Class<I> backingType,
+		final LabelingIOConfig config) throws IOException
+	{
+		if (config.loaderIsCached() && !config.loaderIsLazy()) {
+			return this.loadCached(file, labelType, backingType);
+		}
+		return this.buildImgLabelingAndImage(file, this.readLabelingData(file,
+			labelType), labelType, backingType, config);
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> ImgLabeling<T, I> load(final String file,
+		final Interval interval, final Class<T> labelType,
+		final Class<I> backingType) throws IOException
+	{
+		final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+			file, labelType);
+		final RandomAccessibleInterval<? extends IntegerType<?>> img = LabelingUtil
+			.isBundle(file) ? this.openBundleRegion(file, labelingData.getIndexImg(),
+				interval) : this.openRegion(this.indexImgPath(file, labelingData
+					.getIndexImg()), interval);
+		return this.buildImgLabeling(file, labelingData, img, labelType,
+			backingType);
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> ImgLabeling<T, I> loadFiltered(
+		final String file, final Predicate<? super T> labelFilter,
+		final Class<T> labelType, final Class<I> backingType,
+		final LabelingIOConfig config) throws IOException
+	{
+		final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+			file, labelType);
+		final LabelSetTable table = labelingData.getLabelSets();
+		final IntFunction<T> idToLabel = this.idToLabel(labelingData
+			.getLabelMapping(), labelType);
+		final IntPredicate selected = this.selectedIds(labelingData
+			.getLabelMapping(), idToLabel, labelFilter);
+		// NB: sets without a selected label are mapped to the empty set at 0,
+		// the others to their selected labels, in order of first occurrence
+		final int[] lookup = new int[Math.max(labelingData.getNumSets(), table
+			.numSets())];
+		final Map<Set<T>, Integer> indices = new LinkedHashMap<>();
+		indices.put(Collections.emptySet(), 0);
+		for (int i = 0; i < table.numSets(); i++) {
+			Set<T> labels = null;
+			for (int k = 0; k < table.size(i); k++) {
+				final int id = table.labelId(i, k);
+				if (selected.test(id)) {
+					if (labels == null) {
+						labels = new HashSet<>();
+					}
+					labels.add(idToLabel.apply(id));
+				}
+			}
+			if (labels != null) {
+				lookup[i] = indices.computeIfAbsent(labels, l -> indices.size());
+			}
+		}
+		final RandomAccessibleInterval<? extends IntegerType<?>> img = this
+			.openIndexImg(file, labelingData.getIndexImg(), config);
+		return this.newImgLabeling(file, IndexImgTypes.remap(img, lookup,
+			backingType), new ArrayList<>(indices.keySet()));
 	}
 
 	@Override
@@ -92,22 +236,62 @@ public class DefaultLabelingIOService extends AbstractService implements
 		final String file, final Class<S> metadataType, final Class<T> labelType,
 		final Class<I> backingType) throws IOException
 	{
-		final LabelingData<T, S> labelingData = this.readLabelingDataFromJson(file,
-			labelType, metadataType);
-		final Container<S, T, I> container = new Container<>();
-		container.setImgLabeling(this.getImgLabeling(file, labelType, backingType));
-		final S metadata = this.gson.fromJson(this.gson.toJson(labelingData
-			.getMetadata()), metadataType);
-		container.setMetadata(metadata);
-		return container;
+		return this.loadWithMetadata(file, metadataType, labelType, backingType,
+			new LabelingIOConfig());
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
+		final String file, final Class<S> metadataType, final Class<T> labelType,
+		final Class<I> backingType, final LabelingIOConfig config)
+		throws IOException
+	{
+		final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+			file, labelType);
+		return this.createContainer(file, labelingData, this
+			.buildImgLabelingAndImage(file, labelingData, labelType, backingType,
+				config),
+			metadataType);
 	}
 
 	@Override
 	public <S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
 		final String file, final LongFunction<T> idToLabel,
-		final Class<S> metadataClazz)
+		final Class<S> metadataClazz) throws IOException
+	{
+		return this.loadWithMetadata(file, idToLabel, metadataClazz, null);
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
+		final String file, final LongFunction<T> idToLabel,
+		final Class<S> metadataClazz, final Class<I> backingType)
+		throws IOException
 	{
-		throw new UnsupportedOperationException();
+		// NB: a label dictionary is not needed, so it is only parsed as JSON
+		final LabelingData<JsonElement, JsonElement> labelingData = this
+			.readLabelingData(file, JsonElement.class);
+		final LabelSetTable table = labelingData.getLabelSets();
+		final List<Set<T>> labelSets = this.readLabelsets(file, table,
+			labelingData.getNumSets(), resolveLabels(idToLabel, table));
+		final RandomAccessibleInterval<? extends IntegerType<?>> img = this
+			.openIndexImg(file, labelingData.getIndexImg(), new LabelingIOConfig());
+		final Class<I> type = backingType != null ? backingType : storedType(
+			img);
+		return this.createContainer(file, labelingData, this.newImgLabeling(file,
+			IndexImgTypes.asWritableType(img, type), labelSets),
+			metadataClazz);
+	}
+
+	/**
+	 * The pixel type of the stored index image, which a load without a backing
+	 * type documents as the type of the caller.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <I extends IntegerType<I>> Class<I> storedType(
+		final RandomAccessibleInterval<? extends IntegerType<?>> img)
+	{
+		return (Class<I>) img.getType().getClass();
 	}
 
 	@Override
@@ -122,122 +306,988 @@ public class DefaultLabelingIOService extends AbstractService implements
 		final ImgLabeling<T, I> imgLabeling, final String file, final S metadata)
 		throws IOException
 	{
-		final LabelingMapping<T> labelingMapping = imgLabeling.getMapping();
+		this.save(imgLabeling, file, metadata, new LabelingIOConfig());
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> void save(
+		final ImgLabeling<T, I> imgLabeling, final String file, final S metadata,
+		final LabelingIOConfig config) throws IOException
+	{
+		this.write(this.compacted(imgLabeling, file, config), file, metadata,
+			null, config);
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> void saveWithMetaData(
+		final ImgLabeling<T, I> imgLabeling, final String file,
+		final ToLongFunction<T> labelToId, final S metadata) throws IOException
+	{
+		this.saveWithMetaData(imgLabeling, file, labelToId, metadata,
+			new LabelingIOConfig());
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> void saveWithMetaData(
+		final ImgLabeling<T, I> imgLabeling, final String file,
+		final ToLongFunction<T> labelToId, final S metadata,
+		final LabelingIOConfig config) throws IOException
+	{
+		this.write(this.compacted(imgLabeling, file, config), file, metadata,
+			labelToId, config);
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> ImgLabeling<T, I> load(
+		final InputStream in, final Class<T> labelType, final Class<I> backingType)
+		throws IOException
+	{
+		return this.loadWithMetadata(in, JsonElement.class, labelType,
+			backingType).getImgLabeling();
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
+		final InputStream in, final Class<S> metadataType, final Class<T> labelType,
+		final Class<I> backingType) throws IOException
+	{
+		LabelingData<T, JsonElement> labelingData = null;
+		RandomAccessibleInterval<? extends IntegerType<?>> img = null;
+		// NB: not closed, which would close the given stream
+		final ZipInputStream zip = new ZipInputStream(in);
+		for (ZipEntry entry; (entry = zip.getNextEntry()) != null;) {
+			if (entry.getName().equals(LabelingUtil.BUNDLE_LABELING_ENTRY)) {
+				final PhaseStart start = this.startPhase();
+				labelingData = this.readLabelingData(new InputStreamReader(zip,
+					StandardCharsets.UTF_8), labelType);
+				this.endPhase(start, Phase.READ_LABELING_FILE, (String) null,
+					labelingData.getNumSets());
+			}
+			else if (entry.getName().equals(LabelingUtil.BUNDLE_INDEX_IMG_ENTRY)) {
+				final PhaseStart start = this.startPhase();
+				img = this.openTiff(LabelingBundle.readFully(zip), entry
+					.getName());
+				this.endPhase(start, Phase.READ_INDEX_IMG, (String) null, Intervals
+					.numElements(img));
+			}
+		}
+		if (labelingData == null || img == null) {
+			throw new IOException("The stream holds no labeling bundle");
+		}
+		if (labelingData.getNumSources() > 1) {
+			throw new IOException("The stream holds a labeling of " + labelingData
+				.getNumSources() + " sources, which only loadSources can load");
+		}
+		return this.createContainer(null, labelingData, this.buildImgLabeling(
+			null, labelingData, img, labelType, backingType), metadataType);
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> void save(
+		final ImgLabeling<T, I> imgLabeling, final OutputStream out)
+		throws IOException
+	{
+		this.saveWithMetaData(imgLabeling, out, null);
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> void saveWithMetaData(
+		final ImgLabeling<T, I> imgLabeling, final OutputStream out,
+		final S metadata) throws IOException
+	{
+		checkBundled(Collections.singletonList(imgLabeling.getIndexImg()),
+			imgLabeling.getMapping().numSets());
+		final LabelingData<T, S> labelingData = this.createBasicLabelingData(
+			LabelingUtil.BUNDLE_INDEX_IMG_ENTRY, imgLabeling.getMapping());
+		labelingData.setIndexImg(LabelingUtil.BUNDLE_INDEX_IMG_ENTRY);
+		labelingData.setMetadata(metadata);
+		this.setStatistics(labelingData, null, imgLabeling,
+			new LabelingIOConfig());
+		final ZipOutputStream zip = new ZipOutputStream(out);
+		this.writeBundle(zip, null, imgLabeling.getMapping(), labelingData, null,
+			Collections.singletonList(imgLabeling.getIndexImg()), false);
+		zip.finish();
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> MultiSourceLabeling<T, I> loadSources(
+		final String file, final Class<T> labelType, final Class<I> backingType,
+		final LabelingIOConfig config) throws IOException
+	{
+		final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+			file, labelType);
+		final List<Set<T>> labelSets = this.readLabelsets(file, labelingData,
+			labelType);
+		final int numSources = Math.max(1, labelingData.getNumSources());
+		final List<Supplier<RandomAccessibleInterval<I>>> sources =
+			new ArrayList<>(numSources);
+		if (config.loaderIsLazy()) {
+			for (int source = 0; source < numSources; source++) {
+				final String indexImg = LabelingUtil.getSourceImgName(labelingData
+					.getIndexImg(), source);
+				sources.add(() -> {
+					try {
+						return indexImgAs(this.openIndexImg(file, indexImg, config),
+							backingType, true);
+					}
+					catch (final IOException e) {
+						throw new UncheckedIOException(e);
+					}
+				});
+			}
+		}
+		else {
+			final Executor executor = this.executor(config);
+			final List<CompletableFuture<RandomAccessibleInterval<I>>> indexImgs =
+				new ArrayList<>(numSources);
+			for (int source = 0; source < numSources; source++) {
+				final String indexImg = LabelingUtil.getSourceImgName(labelingData
+					.getIndexImg(), source);
+				indexImgs.add(supply(() -> IndexImgTypes.asWritableType(this
+					.openIndexImg(file, indexImg, config), backingType), executor));
+			}
+			join(indexImgs);
+			for (final CompletableFuture<RandomAccessibleInterval<I>> indexImg : indexImgs) {
+				final RandomAccessibleInterval<I> img = indexImg.join();
+				sources.add(() -> img);
+			}
+		}
+		return new MultiSourceLabeling<>(labelSets, sources);
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> void saveSources(
+		final MultiSourceLabeling<T, I> labeling, final String file,
+		final S metadata, final LabelingIOConfig config) throws IOException
+	{
+		final LabelingMapping<T> labelingMapping = labeling.getImgLabeling(0)
+			.getMapping();
 		final LabelingData<T, S> labelingData = this.createBasicLabelingData(file,
 			labelingMapping);
-		if (!labelingMapping.getLabels().isEmpty()) {
-			this.createLabelsets(labelingMapping, labelingData);
+		labelingData.setNumSources(labeling.numSources());
+		labelingData.setMetadata(metadata);
+		this.setStatistics(labelingData, file, labeling.getImgLabeling(0), config);
+		final List<RandomAccessibleInterval<I>> indexImgs = new ArrayList<>();
+		for (int source = 0; source < labeling.numSources(); source++) {
+			indexImgs.add(labeling.getIndexImg(source));
+		}
+		if (LabelingUtil.isBundle(file)) {
+			checkBundled(indexImgs, labelingMapping.numSets());
+			labelingData.setIndexImg(LabelingUtil.BUNDLE_INDEX_IMG_ENTRY);
+			try (final ZipOutputStream zip = new ZipOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(Paths.get(file)))))
+			{
+				this.writeBundle(zip, file, labelingMapping, labelingData, null,
+					indexImgs, !config.writerIsGzip());
+			}
+			return;
+		}
+		final Executor executor = this.executor(config);
+		final String tif = this.tifPath(file);
+		final List<CompletableFuture<Void>> writes = new ArrayList<>();
+		for (int source = 0; source < indexImgs.size(); source++) {
+			final RandomAccessibleInterval<I> indexImg = indexImgs.get(source);
+			final String path = LabelingUtil.getSourceImgName(tif, source);
+			writes.add(supply(() -> {
+				this.saveIndexImg(indexImg, labelingMapping.numSets(), path, config);
+				return null;
+			}, executor));
+		}
+		join(writes);
+		this.writeLabelingFile(file, labelingData, labelingMapping, null, config);
+	}
 
+	@Override
+	public <T> LabelingDescriptor<T> readDescriptor(final String file,
+		final Class<T> labelType) throws IOException
+	{
+		final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+			file, labelType);
+		final LabelSetTable table = labelingData.getLabelSets();
+		final IntFunction<T> idToLabel = this.idToLabel(labelingData
+			.getLabelMapping(), labelType);
+		final Set<T> labels = new LinkedHashSet<>();
+		for (int k = 0; k < table.numLabelIds(); k++) {
+			labels.add(idToLabel.apply(table.labelIdAt(k)));
 		}
-		labelingData.setMetadata(metadata);
-		final Img<I> img = ImgView.wrap(imgLabeling.getIndexImg(), null);
-		LabelingUtil.saveAsTiff(this.context, LabelingUtil.getFilePathWithExtension(
-			file, TIF_ENDING, Paths.get(file).getParent().toString()), img);
-		this.writeLabelingFile(file, labelingData);
+		// NB: the header of a bundle entry is parsed, its pixels are not copied
+		final Location location = LabelingUtil.isBundle(file) ? tiffLocation(
+			LabelingBundle.entry(Paths.get(file), labelingData.getIndexImg()),
+			labelingData.getIndexImg()) : new FileLocation(this.indexImgPath(file,
+				labelingData.getIndexImg()));
+		final ImageMetadata imageMetadata = this.readImageMetadata(location);
+		final long[] axesLengths = imageMetadata.getAxesLengths();
+		final long[] dims = this.isOneDimensional(location, axesLengths)
+			? new long[] { axesLengths[0] } : axesLengths;
+		final String pixelType = FormatTools.getPixelTypeString(imageMetadata
+			.getPixelType());
+		return new LabelingDescriptor<>(labelingData.getNumSets(), labelingData
+			.getNumSources(), labelingData.getIndexImg(), labelingData
+				.getLabelMapping(), labels, labelingData.getMetadata(), dims,
+			pixelType, this.gson);
 	}
 
 	@Override
-	public <S, T, I extends IntegerType<I>> void saveWithMetaData(
+	public synchronized <T> void registerLabelCodec(final Class<T> labelType,
+		final TypeAdapter<T> codec)
+	{
+		this.labelCodecs.register(labelType, codec);
+		// NB: cached labelings were decoded with the previous codecs
+		this.cache.clear();
+	}
+
+	@Override
+	public synchronized void unregisterLabelCodec(final Class<?> labelType) {
+		this.labelCodecs.unregister(labelType);
+		this.cache.clear();
+	}
+
+	@Override
+	public LabelingCache getCache() {
+		return this.cache;
+	}
+
+	@Override
+	public void addListener(final LabelingIOListener listener) {
+		this.listeners.add(listener);
+	}
+
+	@Override
+	public void removeListener(final LabelingIOListener listener) {
+		this.listeners.remove(listener);
+	}
+
+	@Override
+	public <T> Map<T, LabelStatistics> readLabelStatistics(final String file,
+		final Class<T> labelType) throws IOException
+	{
+		final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+			file, labelType);
+		final SetStatistics setStatistics = labelingData.getSetStatistics();
+		if (setStatistics == null) {
+			return Collections.emptyMap();
+		}
+		return LabelStatistics.of(setStatistics, labelingData.getLabelSets(), this
+			.idToLabel(labelingData.getLabelMapping(), labelType));
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> CompletableFuture<ImgLabeling<T, I>>
+		loadAsync(final String file, final Class<T> labelType,
+			final Class<I> backingType, final LabelingIOConfig config)
+	{
+		if (config.loaderIsCached() && !config.loaderIsLazy()) {
+			return supply(() -> this.loadCached(file, labelType, backingType), this
+				.executor(config));
+		}
+		return this.loadAsync(file, labelType, config, (labelingData,
+			img) -> this.buildImgLabeling(file, labelingData, img, labelType,
+				backingType, config.loaderIsLazy()));
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> CompletableFuture<Container<S, T, I>>
+		loadWithMetadataAsync(final String file, final Class<S> metadataType,
+			final Class<T> labelType, final Class<I> backingType,
+			final LabelingIOConfig config)
+	{
+		return this.loadAsync(file, labelType, config, (labelingData,
+			img) -> this.createContainer(file, labelingData, this.buildImgLabeling(
+				file, labelingData, img, labelType, backingType, config.loaderIsLazy()),
+				metadataType));
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> Iterator<Container<S, T, I>> loadAll(
+		final List<String> files, final Class<S> metadataType,
+		final Class<T> labelType, final Class<I> backingType,
+		final LabelingIOConfig config)
+	{
+		return new BatchIterator<>(files, file -> this.loadWithMetadataAsync(file,
+			metadataType, labelType, backingType, config), config
+				.batchGetParallelism(), config.batchGetReadAhead(), config
+					.batchIsOrdered());
+	}
+
+	@Override
+	public <T, I extends IntegerType<I>> CompletableFuture<Void> saveAsync(
 		final ImgLabeling<T, I> imgLabeling, final String file,
-		final ToLongFunction<T> labelToId, final S metadata) throws IOException
+		final LabelingIOConfig config)
 	{
-		throw new UnsupportedOperationException();
+		return this.saveWithMetaDataAsync(imgLabeling, file, null, config);
 	}
 
-	private <T, I extends IntegerType<I>> ImgLabeling<T, I> getImgLabeling(
+	@Override
+	public <S, T, I extends IntegerType<I>> CompletableFuture<Void>
+		saveWithMetaDataAsync(final ImgLabeling<T, I> imgLabeling,
+			final String file, final S metadata, final LabelingIOConfig config)
+	{
+		final Executor executor = this.executor(config);
+		if (config.writerIsCompact()) {
+			return supply(() -> this.compacted(imgLabeling, file, config), executor)
+				.thenCompose(labeling -> this.writeAsync(labeling, file, metadata,
+					null, config, executor));
+		}
+		return this.writeAsync(imgLabeling, file, metadata, null, config,
+			executor);
+	}
+
+	/**
+	 * Writes the labeling as a bundle, or the index image while the statistics
+	 * are computed, followed by the labeling file once both succeeded. The
+	 * labeling file has a label dictionary unless the ids of the labels are
+	 * given.
+	 */
+	private <S, T, I extends IntegerType<I>> CompletableFuture<Void> writeAsync(
+		final ImgLabeling<T, I> imgLabeling, final String file, final S metadata,
+		final ToLongFunction<T> labelToId, final LabelingIOConfig config,
+		final Executor executor)
+	{
+		final LabelingMapping<T> labelingMapping = imgLabeling.getMapping();
+		final LabelingData<T, S> labelingData = this.createBasicLabelingData(file,
+			labelingMapping);
+		labelingData.setMetadata(metadata);
+		if (LabelingUtil.isBundle(file)) {
+			return CompletableFuture.allOf(supply(() -> {
+				this.setStatistics(labelingData, file, imgLabeling, config);
+				this.writeBundle(file, labelingMapping, labelingData, labelToId,
+					imgLabeling.getIndexImg(), config);
+				return null;
+			}, executor));
+		}
+		final CompletableFuture<Void> indexImg = supply(() -> {
+			this.saveIndexImg(imgLabeling, file, config);
+			return null;
+		}, executor);
+		final CompletableFuture<Void> statistics = supply(() -> {
+			this.setStatistics(labelingData, file, imgLabeling, config);
+			return null;
+		}, executor);
+		// NB: a failed index image is not followed by a labeling file referring
+		// to it
+		return indexImg.thenCombine(statistics, (i, s) -> (Void) null)
+			.thenCompose(v -> supply(() -> {
+				this.writeLabelingFile(file, labelingData, labelingMapping, labelToId,
+					config);
+				return null;
+			}, executor));
+	}
+
+	@Override
+	public <S, T, I extends IntegerType<I>> void saveAll(
+		final Iterable<Container<S, T, I>> containers,
+		final LabelingIOConfig config) throws IOException
+	{
+		final int parallelism = config.batchGetParallelism();
+		final Semaphore permits = new Semaphore(parallelism);
+		final AtomicReference<Throwable> failure = new AtomicReference<>();
+		try {
+			for (final Container<S, T, I> container : containers) {
+				if (container.getFile() == null) {
+					throw new IllegalArgumentException("No file set for a labeling");
+				}
+				permits.acquire();
+				if (failure.get() != null) {
+					permits.release();
+					break;
+				}
+				this.saveWithMetaDataAsync(container.getImgLabeling(), container
+					.getFile(), container.getMetadata(), config) //
+					.whenComplete((v, t) -> {
+						if (t != null) {
+							failure.compareAndSet(null, t);
+						}
+						permits.release();
+					});
+			}
+			permits.acquire(parallelism);
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("Interrupted while saving labelings");
+		}
+		final Throwable t = failure.get();
+		if (t instanceof CompletionException) {
+			rethrow(t.getCause());
+		}
+		else if (t != null) {
+			rethrow(t);
+		}
+	}
+
+	/**
+	 * Waits for all futures to complete, rethrowing the failure of the first
+	 * that failed.
+	 */
+	private static void join(final List<? extends CompletableFuture<?>> futures)
+		throws IOException
+	{
+		try {
+			CompletableFuture.allOf(futures.toArray(new CompletableFuture<?>[0]))
+				.join();
+		}
+		catch (final CompletionException e) {
+			rethrow(e.getCause());
+		}
+	}
+
+	private static void rethrow(final Throwable t) throws IOException {
+		if (t instanceof IOException) {
+			throw (IOException) t;
+		}
+		if (t instanceof RuntimeException) {
+			throw (RuntimeException) t;
+		}
+		if (t instanceof Error) {
+			throw (Error) t;
+		}
+		throw new IOException(t);
+	}
+
+	/**
+	 * Reads the labeling file and decodes the index image in parallel. The index
+	 * image is usually named after the labeling file, so decoding starts before
+	 * the labeling file names it, and is only repeated if the names differ.
+	 * The entries of a bundle are read one after the other.
+	 */
+	private <T, R> CompletableFuture<R> loadAsync(final String file,
+		final Class<T> labelType, final LabelingIOConfig config,
+		final BiFunction<LabelingData<T, JsonElement>, RandomAccessibleInterval<? extends IntegerType<?>>, R> build)
+	{
+		final Executor executor = this.executor(config);
+		if (LabelingUtil.isBundle(file)) {
+			return supply(() -> {
+				final LabelingData<T, JsonElement> labelingData = this
+					.readLabelingData(file, labelType);
+				return build.apply(labelingData, this.openIndexImg(file, labelingData
+					.getIndexImg(), config));
+			}, executor);
+		}
+		final String expectedPath = this.indexImgPath(file, LabelingUtil
+			.getFilePathWithExtension(file, TIF_ENDING, null));
+		// NB: completes with null if there is no index image of the usual name
+		final CompletableFuture<RandomAccessibleInterval<? extends IntegerType<?>>> expectedImg =
+			supply(() -> Files.exists(Paths.get(expectedPath)) ? this.openIndexImg(
+				expectedPath, config) : null, executor);
+		return supply(() -> this.readLabelingData(file, labelType), executor)
+			.thenCompose(labelingData -> {
+				final String path = this.indexImgPath(file, labelingData
+					.getIndexImg());
+				final CompletableFuture<RandomAccessibleInterval<? extends IntegerType<?>>> img;
+				if (path.equals(expectedPath)) {
+					img = expectedImg.thenCompose(i -> i != null ? CompletableFuture
+						.completedFuture(i) : supply(() -> this.openIndexImg(path,
+							config), executor));
+				}
+				else {
+					expectedImg.cancel(false);
+					img = supply(() -> this.openIndexImg(path, config), executor);
+				}
+				return img.thenApply(i -> build.apply(labelingData, i));
+			}).whenComplete((r, t) -> expectedImg.cancel(false));
+	}
+
+	private Executor executor(final LabelingIOConfig config) {
+		final Executor executor = config.asyncGetExecutor();
+		return executor != null ? executor : this.threadService
+			.getExecutorService();
+	}
+
+	/**
+	 * Runs the given task on the executor, completing the future with its result
+	 * or the exception it throws. The task is skipped if the future is cancelled
+	 * before the task starts.
+	 */
+	private static <R> CompletableFuture<R> supply(final IOSupplier<R> task,
+		final Executor executor)
+	{
+		final CompletableFuture<R> future = new CompletableFuture<>();
+		executor.execute(() -> {
+			if (future.isDone()) {
+				return;
+			}
+			try {
+				future.complete(task.get());
+			}
+			catch (final Throwable t) {
+				future.completeExceptionally(t);
+			}
+		});
+		return future;
+	}
+
+	private <S, T, I extends IntegerType<I>> Container<S, T, I> createContainer(
+		final String file, final LabelingData<?, JsonElement> labelingData,
+		final ImgLabeling<T, I> imgLabeling, final Class<S> metadataType)
+	{
+		final Container<S, T, I> container = new Container<>();
+		container.setFile(file);
+		container.setImgLabeling(imgLabeling);
+		final JsonElement metadata = labelingData.getMetadata();
+		container.setMetadataSupplier(() -> this.gson.fromJson(metadata,
+			metadataType));
+		return container;
+	}
+
+	/**
+	 * Loads through the cache, keyed by the canonical path of the labeling file
+	 * and the label type. The files are stamped before they are read, so a
+	 * change while loading invalidates the entry.
+	 */
+	private <T, I extends IntegerType<I>> ImgLabeling<T, I> loadCached(
 		final String file, final Class<T> labelType, final Class<I> backingType)
 		throws IOException
 	{
-		return this.buildImgLabelingAndImage(file, this.readLabelingDataFromJson(
-			file, labelType, Object.class), backingType);
+		final Path path = this.labelingFilePath(file).toRealPath();
+		final List<Object> key = Arrays.asList(path, labelType);
+		CachedLabeling<T> cached = this.cache.get(key,
+			(final CachedLabeling<T> c) -> c.isUpToDate(path));
+		if (cached == null) {
+			final List<Object> stamp = new ArrayList<>(LabelingCache.stamp(path));
+			final LabelingData<T, JsonElement> labelingData = this.readLabelingData(
+				path.toString(), labelType);
+			final boolean bundle = LabelingUtil.isBundle(path.toString());
+			final Path indexImgPath = bundle ? path : Paths.get(this.indexImgPath(
+				file, labelingData.getIndexImg()));
+			stamp.addAll(LabelingCache.stamp(indexImgPath));
+			final RandomAccessibleInterval<? extends IntegerType<?>> img = bundle
+				? this.openBundleEntry(path.toString(), labelingData.getIndexImg())
+				: this.open(indexImgPath.toString());
+			cached = new CachedLabeling<>(stamp, indexImgPath, img, this
+				.readLabelsets(file, labelingData, labelType));
+			final LabelSetTable table = labelingData.getLabelSets();
+			final long bytes = Intervals.numElements(img) * img.getType()
+				.getBitsPerPixel() / 8 + 4L * (table.numSets() + 1 + table
+					.numLabelIds()) + 64L * labelingData.getLabelMapping().size();
+			this.cache.put(key, cached, bytes);
+		}
+		return this.newImgLabeling(file, IndexImgTypes.readOnly(cached.img,
+			backingType), cached.labelSets);
 	}
 
-	private <T, S> LabelingData<T, S> readLabelingDataFromJson(final String file,
-		final Class<T> labelType, final Class<S> metadataType) throws IOException
+	private <T> LabelingData<T, JsonElement> readLabelingData(final String file,
+		final Class<T> labelType) throws IOException
 	{
-		final String path = LabelingUtil.getFilePathWithExtension(file,
-			LabelingUtil.LBL_ENDING, Paths.get(file).getParent().toString());
-		final Reader reader = Files.newBufferedReader(Paths.get(path));
-		final Type type = TypeToken //
-			.getParameterized(LabelingData.class, labelType, metadataType) //
-			.getType();
-		return this.gson.fromJson(reader, type);
+		final PhaseStart start = this.startPhase();
+		final Path path = this.labelingFilePath(file);
+		final LabelingData<T, JsonElement> labelingData;
+		if (LabelingUtil.isBinaryLabeling(path)) {
+			labelingData = LabelingDataBinaryCodec.read(path, this.labelCodecs
+				.adapter(this.gson, labelType), labelType);
+		}
+		else {
+			try (final Reader reader = LabelingUtil.newReader(path)) {
+				labelingData = this.readLabelingData(reader, labelType);
+			}
+		}
+		this.endPhase(start, Phase.READ_LABELING_FILE, path, labelingData
+			.getNumSets());
+		return labelingData;
+	}
+
+	/**
+	 * Reads a JSON labeling file, with the registered codecs for the labels of
+	 * the label mapping only.
+	 */
+	private <T> LabelingData<T, JsonElement> readLabelingData(
+		final Reader reader, final Class<T> labelType) throws IOException
+	{
+		return new LabelingDataCodec<>(this.labelCodecs.adapter(this.gson,
+			labelType), this.gson.getAdapter(JsonElement.class)).read(this.gson
+				.newJsonReader(reader));
+	}
+
+	/**
+	 * Resolves the labeling file of the given path: a {@code .lbl.bin},
+	 * {@code .lbl.json.gz}, {@code .lbl.zip} or {@code .lbl.json} path is taken
+	 * as it is,
+	 * otherwise the JSON file is preferred, then the gzipped JSON file, then the
+	 * binary file.
+	 */
+	private Path labelingFilePath(final String file) {
+		if (file.endsWith(LabelingUtil.BIN_ENDING) || file.endsWith(
+			LabelingUtil.GZIP_ENDING) || LabelingUtil.isBundle(file))
+		{
+			return Paths.get(file);
+		}
+		final String parent = Paths.get(file).getParent().toString();
+		final Path json = Paths.get(LabelingUtil.getFilePathWithExtension(file,
+			LabelingUtil.LBL_ENDING, parent));
+		if (!Files.exists(json)) {
+			final Path gzip = Paths.get(json + ".gz");
+			if (Files.exists(gzip)) {
+				return gzip;
+			}
+			final Path binary = Paths.get(LabelingUtil.getFilePathWithExtension(
+				file, LabelingUtil.BIN_ENDING, parent));
+			if (Files.exists(binary)) {
+				return binary;
+			}
+		}
+		return json;
 	}
 
 	private <S, T, I extends IntegerType<I>> ImgLabeling<T, I>
 		buildImgLabelingAndImage(final String file,
-			final LabelingData<T, S> labelingData, final Class<I> backingType)
+			final LabelingData<T, S> labelingData, final Class<T> labelType,
+			final Class<I> backingType, final LabelingIOConfig config)
 			throws IOException
 	{
-		final int numSets = labelingData.getNumSets();
-		final String indexImg = labelingData.getIndexImg();
-		final List<Set<T>> labelSets = this.readLabelsets(labelingData, numSets);
-		final RandomAccessibleInterval<I> img = (Img<I>) this.datasetIOService.open(
-			LabelingUtil.getFilePathWithExtension(indexImg, TIF_ENDING, Paths.get(
-				file).getParent().toString())).getImgPlus().getImg();
-		return ImgLabeling.fromImageAndLabelSets(img, labelSets);
+		return this.buildImgLabeling(file, labelingData, this.openIndexImg(file,
+			labelingData.getIndexImg(), config), labelType, backingType, config
+				.loaderIsLazy());
+	}
+
+	private <S, T, I extends IntegerType<I>> ImgLabeling<T, I> buildImgLabeling(
+		final String file, final LabelingData<T, S> labelingData,
+		final RandomAccessibleInterval<? extends IntegerType<?>> img,
+		final Class<T> labelType, final Class<I> backingType)
+	{
+		return this.buildImgLabeling(file, labelingData, img, labelType,
+			backingType, false);
+	}
+
+	private <S, T, I extends IntegerType<I>> ImgLabeling<T, I> buildImgLabeling(
+		final String file, final LabelingData<T, S> labelingData,
+		final RandomAccessibleInterval<? extends IntegerType<?>> img,
+		final Class<T> labelType, final Class<I> backingType, final boolean lazy)
+	{
+		final List<Set<T>> labelSets = this.readLabelsets(file, labelingData,
+			labelType);
+		return this.newImgLabeling(file, indexImgAs(img, backingType, lazy),
+			labelSets);
+	}
+
+	/**
+	 * Presents a loaded index image as the requested type. A lazily loaded
+	 * image is read-only, as SCIFIO's cell cache drops changed cells.
+	 */
+	private static <I extends IntegerType<I>> RandomAccessibleInterval<I>
+		indexImgAs(final RandomAccessibleInterval<? extends IntegerType<?>> img,
+			final Class<I> type, final boolean lazy)
+	{
+		return lazy ? IndexImgTypes.readOnly(img, type) : IndexImgTypes
+			.asWritableType(img, type);
+	}
+
+	private <T, I extends IntegerType<I>> ImgLabeling<T, I> newImgLabeling(
+		final String file, final RandomAccessibleInterval<I> img,
+		final List<Set<T>> labelSets)
+	{
+		final PhaseStart start = this.startPhase();
+		final ImgLabeling<T, I> imgLabeling = ImgLabeling.fromImageAndLabelSets(
+			img, labelSets);
+		this.endPhase(start, Phase.BUILD_LABELING, file, labelSets.size());
+		return imgLabeling;
+	}
+
+	private String indexImgPath(final String file, final String indexImg) {
+		return LabelingUtil.getFilePathWithExtension(indexImg, TIF_ENDING, Paths
+			.get(file).getParent().toString());
+	}
+
+	/**
+	 * Opens the index image named in the labeling file, which is an entry of
+	 * the file itself if that is a bundle.
+	 */
+	private RandomAccessibleInterval<? extends IntegerType<?>> openIndexImg(
+		final String file, final String indexImg, final LabelingIOConfig config)
+		throws IOException
+	{
+		if (LabelingUtil.isBundle(file)) {
+			return this.openBundleEntry(file, indexImg);
+		}
+		return this.openIndexImg(this.indexImgPath(file, indexImg), config);
+	}
+
+	/**
+	 * Decodes the index image from its entry in the bundle. A stored entry is
+	 * decoded straight from the mapped file.
+	 */
+	private RandomAccessibleInterval<? extends IntegerType<?>> openBundleEntry(
+		final String file, final String entry) throws IOException
+	{
+		final PhaseStart start = this.startPhase();
+		final RandomAccessibleInterval<? extends IntegerType<?>> img = this
+			.openTiff(LabelingBundle.entry(Paths.get(file), entry), entry);
+		this.endPhase(start, Phase.READ_INDEX_IMG, file, Intervals.numElements(
+			img));
+		return img;
+	}
+
+	/**
+	 * Decodes a TIFF file held in memory, e.g. a bundle entry, through SCIFIO.
+	 * A single row that {@link TiffStreamWriter} marked as an image of one
+	 * dimension is returned with one dimension.
+	 */
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<? extends IntegerType<?>> openTiff(
+		final ByteBuffer tiff, final String name) throws IOException
+	{
+		final Location location = tiffLocation(tiff, name);
+		final RandomAccessibleInterval<? extends IntegerType<?>> img =
+			(RandomAccessibleInterval<? extends IntegerType<?>>) this.datasetIOService
+				.open(location).getImgPlus().getImg();
+		return this.isOneDimensional(location, Intervals.dimensionsAsLongArray(
+			img)) ? Views.hyperSlice(img, 1, 0) : img;
+	}
+
+	/**
+	 * @param name the entry name, whose {@code .tif} ending tells SCIFIO the
+	 *          format
+	 */
+	private static Location tiffLocation(final ByteBuffer tiff,
+		final String name)
+	{
+		return new BytesLocation(new BufferByteBank(tiff), name);
+	}
+
+	/**
+	 * Whether the dimensions are those of a single row whose TIFF description
+	 * marks it as an image of one dimension. Only the first directory of the
+	 * file is parsed.
+	 */
+	private boolean isOneDimensional(final Location tiff, final long[] dims)
+		throws IOException
+	{
+		if (dims.length != 2 || dims[1] != 1) {
+			return false;
+		}
+		try (final DataHandle<Location> handle = this.dataHandleService.create(
+			tiff))
+		{
+			return TiffStreamWriter.isOneDimensional(new TiffParser(this.context,
+				handle).getFirstIFD().getComment());
+		}
+	}
+
+	private RandomAccessibleInterval<? extends IntegerType<?>> openIndexImg(
+		final String path, final LabelingIOConfig config) throws IOException
+	{
+		return config.loaderIsLazy() ? this.openLazily(path) : this.open(
+			path);
+	}
+
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<? extends IntegerType<?>> open(
+		final String path) throws IOException
+	{
+		final PhaseStart start = this.startPhase();
+		final RandomAccessibleInterval<? extends IntegerType<?>> img =
+			(RandomAccessibleInterval<? extends IntegerType<?>>) this.datasetIOService
+				.open(path).getImgPlus().getImg();
+		this.endPhase(start, Phase.READ_INDEX_IMG, Paths.get(path), Intervals
+			.numElements(img));
+		return img;
+	}
+
+	/**
+	 * Opens the part of the index image within the interval, at the position of
+	 * the interval. Only the planes intersecting the interval are read, and of
+	 * those only the strips or tiles intersecting it.
+	 */
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<? extends IntegerType<?>> openRegion(
+		final String path, final Interval interval) throws IOException
+	{
+		final PhaseStart start = this.startPhase();
+		final ImageMetadata imageMetadata = this.readImageMetadata(
+			new FileLocation(path));
+		final List<CalibratedAxis> axes = imageMetadata.getAxes();
+		checkRegion(interval, imageMetadata.getAxesLengths(), path);
+		final AxisType[] axisTypes = new AxisType[axes.size()];
+		final Range[] ranges = new Range[axes.size()];
+		for (int d = 0; d < axisTypes.length; d++) {
+			axisTypes[d] = axes.get(d).type();
+			ranges[d] = new Range(interval.min(d) + "-" + interval.max(d));
+		}
+		final SCIFIOConfig scifioConfig = new SCIFIOConfig() //
+			.imgOpenerSetRegion(new ImageRegion(axisTypes, ranges)) //
+			.imgOpenerSetComputeMinMax(false);
+		final RandomAccessibleInterval<? extends IntegerType<?>> img =
+			(RandomAccessibleInterval<? extends IntegerType<?>>) this.datasetIOService
+				.open(path, scifioConfig).getImgPlus().getImg();
+		this.endPhase(start, Phase.READ_INDEX_IMG, Paths.get(path), Intervals
+			.numElements(img));
+		return Views.translate(img, Intervals.minAsLongArray(interval));
 	}
 
-	private <T, S> void createLabelsets(final LabelingMapping<T> labelingMapping,
-		final LabelingData<T, S> labelingData)
+	/**
+	 * Opens the part of the index image of a bundle within the interval. The
+	 * whole entry is decoded, as it is a single strip per plane.
+	 */
+	private RandomAccessibleInterval<? extends IntegerType<?>> openBundleRegion(
+		final String file, final String entry, final Interval interval)
+		throws IOException
 	{
-		final Optional<T> optional = labelingMapping.getLabels().stream()
-			.findFirst();
-		if (optional.isPresent() && optional.get() instanceof Integer) {
-			final Map<String, Set<Integer>> labels = new HashMap<>();
-			for (int i = 0; i < labelingMapping.numSets(); i++) {
-				labels.put(Integer.toString(i), (Set<Integer>) labelingMapping
-					.labelsAtIndex(i));
+		final RandomAccessibleInterval<? extends IntegerType<?>> img = this
+			.openBundleEntry(file, entry);
+		checkRegion(interval, Intervals.dimensionsAsLongArray(img), file);
+		return Views.interval(img, interval);
+	}
+
+	private static void checkRegion(final Interval interval, final long[] dims,
+		final String path)
+	{
+		if (interval.numDimensions() != dims.length) {
+			throw new IllegalArgumentException("Interval has " + interval
+				.numDimensions() + " dimensions, the index image " + dims.length);
+		}
+		for (int d = 0; d < dims.length; d++) {
+			if (interval.min(d) < 0 || interval.max(d) >= dims[d]) {
+				throw new IllegalArgumentException(
+					"Interval is not within the index image " + path);
 			}
-			labelingData.setLabelSets(labels);
 		}
-		else {
-			final Map<String, Set<Integer>> labels = new HashMap<>();
-			final Map<Integer, T> map = new HashMap<>();
-			for (int i = 0; i < labelingMapping.numSets(); i++) {
-				final Set<Integer> labelset = new HashSet<>();
-				for (final T value : labelingMapping.labelsAtIndex(i)) {
-					if (!map.containsValue(value)) {
-						map.put(map.size() + 1, value);
-					}
-					final int mappedInteger = map.entrySet().stream().filter(
-						entry -> value.equals(entry.getValue())).map(Map.Entry::getKey)
-						.findFirst().get();
-					labelset.add(mappedInteger);
-				}
-				labels.put(Integer.toString(i), labelset);
+	}
+
+	/**
+	 * Reads the metadata of the first image in the file, without reading any
+	 * pixels.
+	 */
+	private ImageMetadata readImageMetadata(final Location location)
+		throws IOException
+	{
+		try {
+			final io.scif.Reader reader = this.initializeService.initializeReader(
+				location);
+			try {
+				// NB: copy, as closing the reader resets its metadata
+				return reader.getMetadata().get(0).copy();
 			}
-			labelingData.setLabelMapping(map);
-			labelingData.setLabelSets(labels);
+			finally {
+				reader.close();
+			}
+		}
+		catch (final FormatException e) {
+			throw new IOException(e);
 		}
 	}
 
-	private <T, S> List<Set<T>> readLabelsets(
-		final LabelingData<T, S> labelingData, final int numSets)
+	/**
+	 * Opens the index image as a SCIFIO cell image, which decodes the cells of
+	 * the reader's native tile grid on access and keeps them in SCIFIO's cell
+	 * cache.
+	 */
+	@SuppressWarnings("unchecked")
+	private RandomAccessibleInterval<? extends IntegerType<?>> openLazily(
+		final String path) throws IOException
 	{
-		final List<Set<T>> labelSets = new ArrayList<>();
-		if (labelingData.getLabelMapping() == null || labelingData.getLabelMapping()
-			.isEmpty())
-		{
-			for (final Set<Integer> set : labelingData.getLabelSets().values()) {
-				final Set<T> labelSet = new HashSet<>();
-				set.stream().map(v -> ((Number) v).intValue()).forEach(v -> labelSet
-					.add((T) v));
-				labelSets.add(labelSet);
+		final PhaseStart start = this.startPhase();
+		final SCIFIOConfig scifioConfig = new SCIFIOConfig() //
+			.imgOpenerSetImgModes(SCIFIOConfig.ImgMode.CELL) //
+			.imgOpenerSetComputeMinMax(false);
+		final RandomAccessibleInterval<? extends IntegerType<?>> img =
+			(RandomAccessibleInterval<? extends IntegerType<?>>) this.datasetIOService
+				.open(path, scifioConfig).getImgPlus().getImg();
+		this.endPhase(start, Phase.READ_INDEX_IMG, Paths.get(path), Intervals
+			.numElements(img));
+		return img;
+	}
+
+	private <T, S> List<Set<T>> readLabelsets(final String file,
+		final LabelingData<T, S> labelingData, final Class<T> labelType)
+	{
+		return this.readLabelsets(file, labelingData.getLabelSets(), labelingData
+			.getNumSets(), this.idToLabel(labelingData.getLabelMapping(),
+				labelType));
+	}
+
+	private <T> List<Set<T>> readLabelsets(final String file,
+		final LabelSetTable table, final int numSets,
+		final IntFunction<T> idToLabel)
+	{
+		final PhaseStart start = this.startPhase();
+		final int size = Math.max(numSets, table.numSets());
+		final List<Set<T>> labelSets = new ArrayList<>(size);
+		for (int i = 0; i < table.numSets(); i++) {
+			labelSets.add(table.asSet(i, idToLabel));
+		}
+		while (labelSets.size() < size) {
+			labelSets.add(Collections.emptySet());
+		}
+		this.endPhase(start, Phase.BUILD_LABEL_SETS, file, size);
+		return labelSets;
+	}
+
+	/**
+	 * Without a label mapping, the ids are the (integer) labels themselves,
+	 * converted to the label type. Otherwise the mapping is flattened into an
+	 * array indexed by id, unless the ids are too sparse for that.
+	 */
+	private <T> IntFunction<T> idToLabel(final Map<Integer, T> labelMapping,
+		final Class<T> labelType)
+	{
+		if (labelMapping == null || labelMapping.isEmpty()) {
+			return LabelCodecRegistry.idsAsLabels(labelType);
+		}
+		int minId = 0;
+		int maxId = 0;
+		for (final int id : labelMapping.keySet()) {
+			minId = Math.min(minId, id);
+			maxId = Math.max(maxId, id);
+		}
+		if (minId < 0 || maxId > 4 * labelMapping.size() + 16) {
+			return id -> labelType.cast(labelMapping.get(id));
+		}
+		final Object[] labels = new Object[maxId + 1];
+		labelMapping.forEach((id, label) -> labels[id] = label);
+		return id -> id >= 0 && id < labels.length ? labelType.cast(labels[id])
+			: null;
+	}
+
+	/**
+	 * With a label mapping, each label is tested once. Otherwise the ids are the
+	 * labels and tested as they are encountered.
+	 */
+	@SuppressWarnings("unchecked")
+	private <T> IntPredicate selectedIds(final Map<Integer, T> labelMapping,
+		final IntFunction<T> idToLabel, final Predicate<? super T> labelFilter)
+	{
+		if (labelMapping == null || labelMapping.isEmpty()) {
+			return id -> labelFilter.test(idToLabel.apply(id));
+		}
+		final Set<Integer> ids = new HashSet<>();
+		labelMapping.forEach((id, label) -> {
+			if (labelFilter.test(label)) {
+				ids.add(id);
+			}
+		});
+		return ids::contains;
+	}
+
+	/**
+	 * Calls {@code idToLabel} eagerly, once per distinct id of the label sets.
+	 * Resolving a label only when its set is first accessed is not possible,
+	 * since building the labeling hashes every label set. Labels are kept in
+	 * an array indexed by id, unless the ids are too sparse or negative for
+	 * that.
+	 */
+	@SuppressWarnings("unchecked")
+	private static <T> IntFunction<T> resolveLabels(
+		final LongFunction<T> idToLabel, final LabelSetTable table)
+	{
+		int minId = 0;
+		int maxId = 0;
+		for (int k = 0; k < table.numLabelIds(); k++) {
+			minId = Math.min(minId, table.labelIdAt(k));
+			maxId = Math.max(maxId, table.labelIdAt(k));
+		}
+		if (minId < 0 || maxId > 4 * table.numLabelIds() + 16) {
+			final Map<Integer, T> labels = new HashMap<>();
+			for (int k = 0; k < table.numLabelIds(); k++) {
+				labels.computeIfAbsent(table.labelIdAt(k), idToLabel::apply);
 			}
+			return labels::get;
 		}
-		else {
-			for (int i = 0; i < numSets; i++) {
-				final Set<T> set = new HashSet<>();
-				for (final int j : labelingData.getLabelSets().get(Integer.toString(
-					i)))
-				{
-					set.add(labelingData.getLabelMapping().get(j));
-				}
-				labelSets.add(set);
+		final Object[] labels = new Object[maxId + 1];
+		for (int k = 0; k < table.numLabelIds(); k++) {
+			final int id = table.labelIdAt(k);
+			if (labels[id] == null) {
+				labels[id] = idToLabel.apply(id);
 			}
 		}
-		return labelSets;
+		return id -> (T) labels[id];
 	}
 
 	private <T, S> LabelingData<T, S> createBasicLabelingData(final String file,
@@ -252,14 +1302,394 @@ public class DefaultLabelingIOService extends AbstractService implements
 		return labelingData;
 	}
 
+	/**
+	 * Writes the labeling on the calling thread, as a bundle or as a labeling
+	 * file next to its index image.
+	 */
+	private <S, T, I extends IntegerType<I>> void write(
+		final ImgLabeling<T, I> imgLabeling, final String file, final S metadata,
+		final ToLongFunction<T> labelToId, final LabelingIOConfig config)
+		throws IOException
+	{
+		join(Collections.singletonList(this.writeAsync(imgLabeling, file,
+			metadata, labelToId, config, Runnable::run)));
+	}
+
+	private <T, S> void setStatistics(final LabelingData<T, S> labelingData,
+		final String file, final ImgLabeling<?, ?> imgLabeling,
+		final LabelingIOConfig config)
+	{
+		if (config.writerIsComputeStatistics()) {
+			labelingData.setSetStatistics(this.computeStatistics(file,
+				imgLabeling));
+		}
+	}
+
+	/** Writes the labeling as a bundle of a single index image. */
+	private <S, T> void writeBundle(final String file,
+		final LabelingMapping<T> labelingMapping,
+		final LabelingData<T, S> labelingData, final ToLongFunction<T> labelToId,
+		final RandomAccessibleInterval<? extends IntegerType<?>> indexImg,
+		final LabelingIOConfig config) throws IOException
+	{
+		checkBundled(Collections.singletonList(indexImg), labelingMapping
+			.numSets());
+		labelingData.setIndexImg(LabelingUtil.BUNDLE_INDEX_IMG_ENTRY);
+		try (final ZipOutputStream zip = new ZipOutputStream(
+			new BufferedOutputStream(Files.newOutputStream(Paths.get(file)))))
+		{
+			this.writeBundle(zip, file, labelingMapping, labelingData, labelToId,
+				Collections.singletonList(indexImg), !config.writerIsGzip());
+		}
+	}
+
+	/**
+	 * Rejects index images that a bundle cannot hold, before anything is
+	 * written.
+	 */
+	private static void checkBundled(
+		final List<? extends RandomAccessibleInterval<? extends IntegerType<?>>> indexImgs,
+		final int numSets) throws IOException
+	{
+		for (final RandomAccessibleInterval<? extends IntegerType<?>> img : indexImgs) {
+			final RandomAccessibleInterval<? extends IntegerType<?>> narrowed =
+				IndexImgTypes.narrow(img, numSets);
+			if (!TiffStreamWriter.isSupported(narrowed) || TiffStreamWriter.size(
+				narrowed) > LabelingBundle.MAX_ENTRY_SIZE)
+			{
+				throw new IOException("A bundle cannot hold an index image of " + img
+					.numDimensions() + " dimensions and size " + Arrays.toString(
+						Intervals.dimensionsAsLongArray(img)));
+			}
+		}
+	}
+
+	/**
+	 * Writes the labeling file and the index image of each source as entries of
+	 * a bundle, either stored or deflated. The labeling file has a label
+	 * dictionary unless the ids of the labels are given.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <S, T> void writeBundle(final ZipOutputStream zip, final String file,
+		final LabelingMapping<T> labelingMapping,
+		final LabelingData<T, S> labelingData, final ToLongFunction<T> labelToId,
+		final List<? extends RandomAccessibleInterval<? extends IntegerType<?>>> indexImgs,
+		final boolean stored) throws IOException
+	{
+		PhaseStart start = this.startPhase();
+		LabelingBundle.putEntry(zip, LabelingUtil.BUNDLE_LABELING_ENTRY, stored,
+			out -> {
+				final JsonWriter writer = this.gson.newJsonWriter(new BufferedWriter(
+					new OutputStreamWriter(out, StandardCharsets.UTF_8)));
+				if (labelToId == null) {
+					LabelingDataCodec.write(this.gson, this.labelCodecs.adapters(
+						this.gson), writer, labelingData, labelingMapping);
+				}
+				else {
+					LabelingDataCodec.write(this.gson, writer, labelingData,
+						labelingMapping, labelToId);
+				}
+				writer.flush();
+			});
+		this.endPhase(start, Phase.WRITE_LABELING_FILE, file, labelingMapping
+			.numSets());
+		for (int source = 0; source < indexImgs.size(); source++) {
+			start = this.startPhase();
+			final RandomAccessibleInterval img = IndexImgTypes.narrow(indexImgs.get(
+				source), labelingMapping.numSets());
+			LabelingBundle.putEntry(zip, LabelingUtil.getSourceImgName(labelingData
+				.getIndexImg(), source), stored, out -> TiffStreamWriter.write(
+					Channels.newChannel(out), img));
+			this.endPhase(start, Phase.WRITE_INDEX_IMG, file, Intervals
+				.numElements(img));
+		}
+	}
+
+	/**
+	 * Returns the labeling with the label sets no pixel refers to dropped, if
+	 * the config asks for it. The remaining sets keep their order and the index
+	 * image is remapped on the fly while it is written, so nothing is copied.
+	 * If every set is referenced, the labeling itself is returned.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private <T, I extends IntegerType<I>> ImgLabeling<T, ?> compacted(
+		final ImgLabeling<T, I> imgLabeling, final String file,
+		final LabelingIOConfig config)
+	{
+		if (!config.writerIsCompact()) {
+			return imgLabeling;
+		}
+		final PhaseStart start = this.startPhase();
+		final LabelingMapping<T> mapping = imgLabeling.getMapping();
+		final long[] counts = SetStatistics.histogram(imgLabeling.getIndexImg(),
+			mapping.numSets());
+		final int[] lookup = new int[counts.length];
+		final List<Set<T>> labelSets = new ArrayList<>();
+		for (int i = 0; i < counts.length; i++) {
+			// NB: set 0 is the empty set of the background and always stays
+			if (i == 0 || counts[i] > 0) {
+				lookup[i] = labelSets.size();
+				labelSets.add(mapping.labelsAtIndex(i));
+			}
+		}
+		this.endPhase(start, Phase.COMPACT, file, labelSets.size());
+		if (labelSets.size() == counts.length) {
+			return imgLabeling;
+		}
+		final Class type = IndexImgTypes.narrowestUnsignedType(labelSets.size() -
+			1).getClass();
+		return ImgLabeling.fromImageAndLabelSets(IndexImgTypes.remap(imgLabeling
+			.getIndexImg(), lookup, type), labelSets);
+	}
+
+	private <T, I extends IntegerType<I>> void saveIndexImg(
+		final ImgLabeling<T, I> imgLabeling, final String file,
+		final LabelingIOConfig config) throws IOException
+	{
+		this.saveIndexImg(imgLabeling.getIndexImg(), imgLabeling.getMapping()
+			.numSets(), this.tifPath(file), config);
+	}
+
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	private void saveIndexImg(
+		final RandomAccessibleInterval<? extends IntegerType<?>> indexImg,
+		final int numSets, final String tif, final LabelingIOConfig config)
+		throws IOException
+	{
+		final RandomAccessibleInterval img = IndexImgTypes.narrow(indexImg,
+			numSets);
+		final String compression = config.writerGetCompression();
+		final PhaseStart start = this.startPhase();
+		// NB: SCIFIO would read a TIFF of one dimension back as a single row
+		if (config.writerIsStreaming() && (compression == null ||
+			LabelingIOConfig.COMPRESSION_UNCOMPRESSED.equals(compression)) && img
+				.numDimensions() > 1 && TiffStreamWriter.isSupported(img))
+		{
+			TiffStreamWriter.write(Paths.get(tif), img);
+		}
+		else {
+			LabelingUtil.saveAsTiff(this.context, tif, img, compression);
+		}
+		this.endPhase(start, Phase.WRITE_INDEX_IMG, Paths.get(tif), Intervals
+			.numElements(img));
+	}
+
+	private String tifPath(final String file) {
+		return LabelingUtil.getFilePathWithExtension(file, TIF_ENDING, Paths.get(
+			file).getParent().toString());
+	}
+
+	/**
+	 * Writes the labeling file, with a label dictionary unless the ids of the
+	 * labels are given. A gzipped JSON file gets the {@code .lbl.json.gz}
+	 * ending.
+	 */
 	private <T, S> void writeLabelingFile(final String file,
-		final LabelingData<T, S> labelingData) throws IOException
+		final LabelingData<T, S> labelingData,
+		final LabelingMapping<T> labelingMapping,
+		final ToLongFunction<T> labelToId, final LabelingIOConfig config)
+		throws IOException
 	{
-		final Writer writer = new FileWriter(LabelingUtil.getFilePathWithExtension(
-			file, LabelingUtil.LBL_ENDING, Paths.get(file).getParent().toString()));
-		this.gson.toJson(labelingData, LabelingData.class, writer);
-		writer.flush();
-		writer.close();
+		final PhaseStart start = this.startPhase();
+		if (file.endsWith(LabelingUtil.BIN_ENDING)) {
+			if (labelToId == null) {
+				LabelingDataBinaryCodec.write(Paths.get(file), this.gson,
+					this.labelCodecs.adapters(this.gson), labelingData, labelingMapping);
+			}
+			else {
+				LabelingDataBinaryCodec.write(Paths.get(file), this.gson, labelingData,
+					labelingMapping, labelToId);
+			}
+			deleteOtherFormats(Paths.get(file));
+			this.endPhase(start, Phase.WRITE_LABELING_FILE, Paths.get(file),
+				labelingMapping.numSets());
+			return;
+		}
+		final String json = LabelingUtil.getFilePathWithExtension(file,
+			LabelingUtil.LBL_ENDING, Paths.get(file).getParent().toString());
+		final Path path = Paths.get(config.writerIsGzip() ? json + ".gz" : json);
+		final Writer out = config.writerIsGzip() ? new BufferedWriter(
+			new OutputStreamWriter(new GZIPOutputStream(Files.newOutputStream(path)),
+				StandardCharsets.UTF_8)) : Files.newBufferedWriter(path);
+		try (final JsonWriter writer = this.gson.newJsonWriter(out)) {
+			if (labelToId == null) {
+				LabelingDataCodec.write(this.gson, this.labelCodecs.adapters(
+					this.gson), writer, labelingData, labelingMapping);
+			}
+			else {
+				LabelingDataCodec.write(this.gson, writer, labelingData,
+					labelingMapping, labelToId);
+			}
+		}
+		deleteOtherFormats(path);
+		this.endPhase(start, Phase.WRITE_LABELING_FILE, path, labelingMapping
+			.numSets());
+	}
+
+	/**
+	 * Deletes the labeling files of the same name in the other formats, which a
+	 * load would otherwise prefer to the file just written, or fall back to.
+	 */
+	private static void deleteOtherFormats(final Path written)
+		throws IOException
+	{
+		final String[] endings = { LabelingUtil.LBL_ENDING,
+			LabelingUtil.GZIP_ENDING, LabelingUtil.BIN_ENDING };
+		final String name = written.toString();
+		for (final String ending : endings) {
+			if (!name.endsWith(ending)) {
+				continue;
+			}
+			final String base = name.substring(0, name.length() - ending.length());
+			for (final String other : endings) {
+				if (!other.equals(ending)) {
+					Files.deleteIfExists(Paths.get(base + other));
+				}
+			}
+		}
+	}
+
+	private SetStatistics computeStatistics(final String file,
+		final ImgLabeling<?, ?> imgLabeling)
+	{
+		final PhaseStart start = this.startPhase();
+		final int numSets = imgLabeling.getMapping().numSets();
+		final SetStatistics statistics = SetStatistics.compute(imgLabeling
+			.getIndexImg(), numSets);
+		this.endPhase(start, Phase.COMPUTE_STATISTICS, file, numSets);
+		return statistics;
+	}
+
+	/**
+	 * Starts timing a phase, or returns null if nobody listens, so that the
+	 * instrumentation costs a single check per phase when it is not used.
+	 */
+	private PhaseStart startPhase() {
+		return this.listeners.isEmpty() ? null : new PhaseStart();
+	}
+
+	/** Reports a phase that read or wrote the given file. */
+	private void endPhase(final PhaseStart start, final Phase phase,
+		final Path path, final long count)
+	{
+		if (start == null) {
+			return;
+		}
+		long bytes = -1;
+		try {
+			bytes = Files.size(path);
+		}
+		catch (final IOException e) {
+			// NB: the size stays unknown
+		}
+		this.notify(start.finish(phase, path.toString(), bytes, count));
+	}
+
+	/** Reports a phase of the load or save of the given labeling file. */
+	private void endPhase(final PhaseStart start, final Phase phase,
+		final String file, final long count)
+	{
+		if (start == null) {
+			return;
+		}
+		this.notify(start.finish(phase, file, -1, count));
+	}
+
+	private void notify(final PhaseTiming timing) {
+		for (final LabelingIOListener listener : this.listeners) {
+			try {
+				listener.phaseCompleted(timing);
+			}
+			catch (final RuntimeException e) {
+				this.log().error("Labeling I/O listener failed", e);
+			}
+		}
+	}
+
+	/**
+	 * The start time and allocation counter of a timed phase.
+	 */
+	private static class PhaseStart {
+
+		private final long nanos = System.nanoTime();
+		private final long allocated = allocatedBytes();
+
+		private PhaseTiming finish(final Phase phase, final String file,
+			final long bytes, final long count)
+		{
+			final long elapsed = System.nanoTime() - this.nanos;
+			final long allocated = this.allocated < 0 ? -1 : allocatedBytes() -
+				this.allocated;
+			return new PhaseTiming(phase, file, elapsed, bytes, count, allocated);
+		}
+
+		private static long allocatedBytes() {
+			try {
+				return ThreadAllocation.current();
+			}
+			catch (final LinkageError e) {
+				// NB: the JVM has no com.sun.management
+				return -1;
+			}
+		}
+	}
+
+	/**
+	 * Reads the bytes allocated by the current thread, where the JVM counts
+	 * them.
+	 */
+	private static class ThreadAllocation {
+
+		private static final ThreadMXBean BEAN = bean();
+
+		private static ThreadMXBean bean() {
+			final java.lang.management.ThreadMXBean bean = ManagementFactory
+				.getThreadMXBean();
+			return bean instanceof ThreadMXBean ? (ThreadMXBean) bean : null;
+		}
+
+		private static long current() {
+			return BEAN == null ? -1 : BEAN.getThreadAllocatedBytes(Thread
+				.currentThread().getId());
+		}
+	}
+
+	/**
+	 * A cached index image and label sets, with the stamp of the files they
+	 * were loaded from.
+	 */
+	private static class CachedLabeling<T> {
+
+		private final List<Object> stamp;
+		private final Path indexImgPath;
+		private final RandomAccessibleInterval<? extends IntegerType<?>> img;
+		private final List<Set<T>> labelSets;
+
+		private CachedLabeling(final List<Object> stamp, final Path indexImgPath,
+			final RandomAccessibleInterval<? extends IntegerType<?>> img,
+			final List<Set<T>> labelSets)
+		{
+			this.stamp = stamp;
+			this.indexImgPath = indexImgPath;
+			this.img = img;
+			this.labelSets = labelSets;
+		}
+
+		private boolean isUpToDate(final Path labelingFile) {
+			try {
+				return this.stamp.equals(LabelingCache.stamp(labelingFile,
+					this.indexImgPath));
+			}
+			catch (final IOException e) {
+				return false;
+			}
+		}
+	}
+
+	@FunctionalInterface
+	private interface IOSupplier<R> {
+
+		R get() throws IOException;
 	}
 
 }
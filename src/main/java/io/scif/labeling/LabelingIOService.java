@@ -29,13 +29,29 @@
 
 package io.scif.labeling;
 
+import com.google.gson.TypeAdapter;
+
+import io.scif.labeling.config.LabelingIOConfig;
 import io.scif.labeling.data.Container;
+import io.scif.labeling.data.LabelStatistics;
+import io.scif.labeling.data.LabelingDescriptor;
+import io.scif.labeling.data.MultiSourceLabeling;
+import io.scif.labeling.utils.LabelingCache;
+import io.scif.labeling.utils.LabelingUtil;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 import java.util.function.LongFunction;
+import java.util.function.Predicate;
 import java.util.function.ToLongFunction;
 
 import net.imagej.ImageJService;
+import net.imglib2.Interval;
 import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.type.numeric.IntegerType;
 
@@ -44,6 +60,35 @@ import net.imglib2.type.numeric.IntegerType;
  * data files. Basic support for primitive types and JSON standard types is
  * already included. For non-primitive types, a codec must be set and the class
  * must be given as an argument to the methods.
+ * <p>
+ * Labeling data may also be stored in a binary {@code .lbl.bin} file, which is
+ * memory-mapped on load. It is written when the file passed to a save method
+ * ends with {@code .lbl.bin}, and recognized on load by its ending or its magic
+ * number. A save deletes the JSON, gzipped JSON or binary labeling file of the
+ * same name that it did not write, so that a load never finds a stale one.
+ * </p>
+ * <p>
+ * A labeling may also be bundled into a single {@code .lbl.zip} file, which
+ * holds the labeling file and the index image as zip entries. It is written
+ * when the file passed to a save method ends with {@code .lbl.zip}. The
+ * entries are stored uncompressed, so that the index image is decoded straight
+ * from the memory-mapped bundle on load, or deflated if the config asks for
+ * gzip. A bundle holds index images of one to five dimensions with 8, 16 or
+ * 32 bits per pixel, and of less than 2 GB; a save of any other index image
+ * to a bundle fails with an {@link IOException} before the bundle is created.
+ * </p>
+ * <p>
+ * The index image is stored in the narrowest unsigned type that holds its set
+ * indices. On load it is copied into a wider backing type, so the labeling
+ * can gain sets beyond the stored range, and viewed as any other backing
+ * type. A lazily loaded index image is a read-only view instead.
+ * </p>
+ * <p>
+ * The asynchronous methods return at once and run on the executor of the
+ * given {@link LabelingIOConfig}. A load parses the labeling file while the
+ * index image is decoded, and a save writes both files at the same time. I/O
+ * errors complete the returned future exceptionally.
+ * </p>
  *
  * @author Tom Burke
  */
@@ -52,9 +97,135 @@ public interface LabelingIOService extends ImageJService {
 	<T, I extends IntegerType<I>> ImgLabeling<T, I> load(String file,
 		Class<T> labelType, Class<I> backingType) throws IOException;
 
+	/**
+	 * Load a labeling from the given file path as string, with the given
+	 * options.
+	 *
+	 * @param file The path to the file
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return the ImgLabeling
+	 * @throws IOException on file read fail
+	 */
+	<T, I extends IntegerType<I>> ImgLabeling<T, I> load(String file,
+		Class<T> labelType, Class<I> backingType, LabelingIOConfig config)
+		throws IOException;
+
+	/**
+	 * Load the part of a labeling within the given interval. Only the parts of
+	 * the index image intersecting the interval are read, except from a bundle,
+	 * whose index image is decoded as a whole. The labeling has the bounds of
+	 * the interval and all label sets of the labeling file.
+	 *
+	 * @param file The path to the file
+	 * @param interval the region to load, within the bounds of the index image
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return the ImgLabeling over the interval
+	 * @throws IOException on file read fail
+	 */
+	<T, I extends IntegerType<I>> ImgLabeling<T, I> load(String file,
+		Interval interval, Class<T> labelType, Class<I> backingType)
+		throws IOException;
+
+	/**
+	 * Load a labeling restricted to the labels accepted by the filter, e.g.
+	 * {@code labels::contains}. Only the label ids of the label sets are read;
+	 * sets without an accepted label become the empty set, and the others keep
+	 * only their accepted labels. The index image is a read-only view mapping
+	 * the stored indices to the new ones; with
+	 * {@link LabelingIOConfig#loaderSetLazy(boolean)} it is also only decoded
+	 * where it is accessed.
+	 *
+	 * @param file The path to the file
+	 * @param labelFilter accepts the labels to keep
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return the ImgLabeling with the accepted labels only
+	 * @throws IOException on file read fail
+	 */
+	<T, I extends IntegerType<I>> ImgLabeling<T, I> loadFiltered(String file,
+		Predicate<? super T> labelFilter, Class<T> labelType,
+		Class<I> backingType, LabelingIOConfig config) throws IOException;
+
 	<T, I extends IntegerType<I>> void save(ImgLabeling<T, I> imgLabeling,
 		String file) throws IOException;
 
+	/**
+	 * Read what the labeling file and the header of the index image tell about
+	 * a labeling: the number of sets and sources, the labels, the metadata and
+	 * the dimensions and pixel type of the index image. No pixels are read,
+	 * though a deflated entry of a bundle is inflated.
+	 *
+	 * @param file The path to the file
+	 * @param labelType the label class
+	 * @param <T> the label value
+	 * @return the descriptor of the labeling
+	 * @throws IOException on file read fail
+	 */
+	<T> LabelingDescriptor<T> readDescriptor(String file, Class<T> labelType)
+		throws IOException;
+
+	/**
+	 * @return the cache used by loads with
+	 *         {@link LabelingIOConfig#loaderSetCached(boolean)}, to configure its
+	 *         memory budget and references and to read its hit and miss counts
+	 */
+	LabelingCache getCache();
+
+	/**
+	 * Registers a listener that receives the timing of each phase of every load
+	 * and save. Without listeners, no timings are taken.
+	 *
+	 * @param listener the listener to add
+	 */
+	void addListener(LabelingIOListener listener);
+
+	/**
+	 * @param listener the listener to remove
+	 */
+	void removeListener(LabelingIOListener listener);
+
+	/**
+	 * Register the codec reading and writing labels of the given class in the
+	 * label mapping of labeling files, in place of Gson reflection. The codec
+	 * is not used for the metadata, nor for fields of other labels.
+	 *
+	 * @param labelType the label class, matched exactly
+	 * @param codec reads and writes labels of the class
+	 * @param <T> the label value
+	 */
+	<T> void registerLabelCodec(Class<T> labelType, TypeAdapter<T> codec);
+
+	/**
+	 * Remove the codec registered for the given label class, if there is one.
+	 *
+	 * @param labelType the label class
+	 */
+	void unregisterLabelCodec(Class<?> labelType);
+
+	/**
+	 * Read the voxel count, bounding box and centroid of each label, as stored
+	 * in the labeling file at save time, without reading the index image.
+	 *
+	 * @param file The path to the file
+	 * @param labelType the label class
+	 * @param <T> the label value
+	 * @return the statistics of each label with at least one voxel, empty if the
+	 *         file holds no statistics
+	 * @throws IOException on file read fail
+	 */
+	<T> Map<T, LabelStatistics> readLabelStatistics(String file,
+		Class<T> labelType) throws IOException;
+
 	/**
 	 * Load a labeling container from the given file path as string. The file path
 	 * must point to the JSON file containing the labeling data.
@@ -72,13 +243,38 @@ public interface LabelingIOService extends ImageJService {
 		String file, Class<S> metadataType, Class<T> labelType,
 		Class<I> backingType) throws IOException;
 
+	/**
+	 * Load a labeling container from the given file path as string, with the
+	 * given options.
+	 *
+	 * @param file The path to the file
+	 * @param metadataType the metadata class
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @return a container object holding the ImgLabeling and the metadata
+	 * @throws IOException on file read fail
+	 */
+	<S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
+		String file, Class<S> metadataType, Class<T> labelType,
+		Class<I> backingType, LabelingIOConfig config) throws IOException;
+
 	/**
 	 * Load a labeling container from the given file path as string. The file path
-	 * must point to the JSON file containing the labeling data.
+	 * must point to the JSON file containing the labeling data. The
+	 * {@code idToLabel} function is called eagerly while loading, exactly once
+	 * for each distinct label id of the label sets, since building the labeling
+	 * needs every label. The index image keeps the pixel type stored in the
+	 * file, as told by {@link LabelingDescriptor#getPixelType()}, so {@code I}
+	 * must be that type; other pixel types are loaded with
+	 * {@link #loadWithMetadata(String, LongFunction, Class, Class)}.
 	 *
 	 * @param file The path to the file
-	 * @param idToLabel a function transforming the label of type T into something
-	 *          else
+	 * @param idToLabel a function transforming the label ids stored in the file
+	 *          into labels
 	 * @param metadataClazz the metadata class
 	 * @param <T> the label value
 	 * @param <I> IntegerType for the pixel value
@@ -91,6 +287,27 @@ public interface LabelingIOService extends ImageJService {
 		String file, LongFunction<T> idToLabel, Class<S> metadataClazz)
 		throws IOException;
 
+	/**
+	 * Load a labeling container, transforming the label ids stored in the file
+	 * into labels with {@code idToLabel}, which is called eagerly while
+	 * loading, exactly once for each distinct label id of the label sets.
+	 *
+	 * @param file The path to the file
+	 * @param idToLabel a function transforming the label ids stored in the file
+	 *          into labels
+	 * @param metadataClazz the metadata class
+	 * @param backingType the class of the index image pixels, or null for the
+	 *          pixel type stored in the file
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @return a container object holding the ImgLabeling
+	 * @throws IOException on file read fail
+	 */
+	<S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
+		String file, LongFunction<T> idToLabel, Class<S> metadataClazz,
+		Class<I> backingType) throws IOException;
+
 	/**
 	 * Save an ImgLabelingContainer in the file-path, transforming it into a JSON
 	 * file and an image. The path must contain the filename (ending does not
@@ -105,10 +322,28 @@ public interface LabelingIOService extends ImageJService {
 	<S, T, I extends IntegerType<I>> void saveWithMetaData(
 		ImgLabeling<T, I> imgLabeling, String file, S metadata) throws IOException;
 
+	/**
+	 * Save an ImgLabeling and its metadata in the file-path, transforming it
+	 * into a JSON file and an image, with the given options for compression and
+	 * statistics. The path must contain the filename (ending does not matter).
+	 *
+	 * @param imgLabeling the imglabeling object that needs to be serialized
+	 * @param file the path pointing to the file, including the filename
+	 * @param metadata the metadata to store in the labeling file
+	 * @param config the save options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @throws IOException on file write fail
+	 */
+	<S, T, I extends IntegerType<I>> void save(ImgLabeling<T, I> imgLabeling,
+		String file, S metadata, LabelingIOConfig config) throws IOException;
+
 	/**
 	 * Save an ImgLabelingContainer in the file-path, transforming it into a JSON
 	 * file and an image. The path must contain the filename (ending does not
-	 * matter).
+	 * matter). No set statistics are computed, see
+	 * {@link LabelingIOConfig#writerSetComputeStatistics}.
 	 *
 	 * @param imgLabeling the imglabeling object that needs to be serialized
 	 * @param labelToId a function to convert the type T to a long value.
@@ -121,4 +356,236 @@ public interface LabelingIOService extends ImageJService {
 		ImgLabeling<T, I> imgLabeling, String file, ToLongFunction<T> labelToId,
 		S metadata) throws IOException;
 
+	/**
+	 * Save a labeling with the ids of its labels in place of a label
+	 * dictionary, with the given options for compression and statistics.
+	 *
+	 * @param imgLabeling the imglabeling object that needs to be serialized
+	 * @param file the path pointing to the file, including the filename
+	 * @param labelToId a function to convert the type T to a long value
+	 * @param metadata the metadata to store in the labeling file
+	 * @param config the save options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @throws IOException on file write fail
+	 */
+	<S, T, I extends IntegerType<I>> void saveWithMetaData(
+		ImgLabeling<T, I> imgLabeling, String file, ToLongFunction<T> labelToId,
+		S metadata, LabelingIOConfig config) throws IOException;
+
+	/**
+	 * Load a labeling from a stream holding a labeling bundle, as written by
+	 * {@link #saveWithMetaData(ImgLabeling, OutputStream, Object)}. The index
+	 * image is decoded in memory; no files are written. The stream is read to
+	 * the end of the bundle but not closed.
+	 *
+	 * @param in the stream to read
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return the ImgLabeling
+	 * @throws IOException on stream read fail or if it holds no bundle of a
+	 *           single source
+	 */
+	<T, I extends IntegerType<I>> ImgLabeling<T, I> load(InputStream in,
+		Class<T> labelType, Class<I> backingType) throws IOException;
+
+	/**
+	 * Load a labeling container from a stream holding a labeling bundle.
+	 *
+	 * @param in the stream to read
+	 * @param metadataType the metadata class
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param <S> Class of the meta data
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return a container object holding the ImgLabeling, without a file
+	 * @throws IOException on stream read fail or if it holds no bundle of a
+	 *           single source
+	 * @see #load(InputStream, Class, Class)
+	 */
+	<S, T, I extends IntegerType<I>> Container<S, T, I> loadWithMetadata(
+		InputStream in, Class<S> metadataType, Class<T> labelType,
+		Class<I> backingType) throws IOException;
+
+	/**
+	 * Save a labeling to a stream as a labeling bundle.
+	 *
+	 * @param imgLabeling the imglabeling object that needs to be serialized
+	 * @param out the stream to write to
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @throws IOException on stream write fail
+	 * @see #saveWithMetaData(ImgLabeling, OutputStream, Object)
+	 */
+	<T, I extends IntegerType<I>> void save(ImgLabeling<T, I> imgLabeling,
+		OutputStream out) throws IOException;
+
+	/**
+	 * Save a labeling and its metadata to a stream as a labeling bundle: a zip
+	 * stream holding the JSON labeling file and the index image as an
+	 * uncompressed TIFF, which is encoded in memory strip by strip. No files are
+	 * written, and the stream is finished but not closed. The index image must
+	 * have one to five dimensions. As with the default config of a file save,
+	 * no set statistics are computed.
+	 *
+	 * @param imgLabeling the imglabeling object that needs to be serialized
+	 * @param out the stream to write to
+	 * @param metadata the metadata to store in the labeling file
+	 * @param <S> Class of the meta data
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @throws IOException on stream write fail or if the index image cannot be
+	 *           bundled
+	 */
+	<S, T, I extends IntegerType<I>> void saveWithMetaData(
+		ImgLabeling<T, I> imgLabeling, OutputStream out, S metadata)
+		throws IOException;
+
+	/**
+	 * Load all sources of a labeling. The index image of each source is decoded
+	 * in parallel on the executor of the config, or on first access if the
+	 * config loads lazily. The other load methods read the first source only.
+	 *
+	 * @param file The path to the file
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return the labeling of all sources
+	 * @throws IOException on file read fail
+	 */
+	<T, I extends IntegerType<I>> MultiSourceLabeling<T, I> loadSources(
+		String file, Class<T> labelType, Class<I> backingType,
+		LabelingIOConfig config) throws IOException;
+
+	/**
+	 * Save all sources of a labeling. The first source is written to the index
+	 * image named in the labeling file, each further source to an index image
+	 * named after it, see {@link LabelingUtil#getSourceImgName}. Statistics, if
+	 * the config asks for them, are those of the first source, and compaction
+	 * does not apply.
+	 *
+	 * @param labeling the labeling to save
+	 * @param file The path to the file
+	 * @param metadata the metadata to store in the labeling file
+	 * @param config the save options
+	 * @param <S> Class of the meta data
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @throws IOException on file write fail
+	 */
+	<S, T, I extends IntegerType<I>> void saveSources(
+		MultiSourceLabeling<T, I> labeling, String file, S metadata,
+		LabelingIOConfig config) throws IOException;
+
+	/**
+	 * Asynchronously load a labeling from the given file path as string.
+	 *
+	 * @param file The path to the file
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load options, including the executor and the cache
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return a future completed with the ImgLabeling
+	 */
+	<T, I extends IntegerType<I>> CompletableFuture<ImgLabeling<T, I>>
+		loadAsync(String file, Class<T> labelType, Class<I> backingType,
+			LabelingIOConfig config);
+
+	/**
+	 * Asynchronously load a labeling container from the given file path as
+	 * string.
+	 *
+	 * @param file The path to the file
+	 * @param metadataType the metadata class
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load options, including the executor
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @return a future completed with the container holding the ImgLabeling and
+	 *         the metadata
+	 */
+	<S, T, I extends IntegerType<I>> CompletableFuture<Container<S, T, I>>
+		loadWithMetadataAsync(String file, Class<S> metadataType,
+			Class<T> labelType, Class<I> backingType, LabelingIOConfig config);
+
+	/**
+	 * Asynchronously save an ImgLabeling in the file-path. The labeling file is
+	 * only written once the image has been written.
+	 *
+	 * @param imgLabeling the imglabeling object that needs to be serialized
+	 * @param file the path pointing to the file, including the filename
+	 * @param config the save options, including the executor
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @return a future completed when both files are written
+	 */
+	<T, I extends IntegerType<I>> CompletableFuture<Void> saveAsync(
+		ImgLabeling<T, I> imgLabeling, String file, LabelingIOConfig config);
+
+	/**
+	 * Asynchronously save an ImgLabeling and its metadata in the file-path. The
+	 * labeling file is only written once the image has been written.
+	 *
+	 * @param imgLabeling the imglabeling object that needs to be serialized
+	 * @param file the path pointing to the file, including the filename
+	 * @param metadata the metadata to store in the labeling file
+	 * @param config the save options, including the executor
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @return a future completed when both files are written
+	 */
+	<S, T, I extends IntegerType<I>> CompletableFuture<Void>
+		saveWithMetaDataAsync(ImgLabeling<T, I> imgLabeling, String file,
+			S metadata, LabelingIOConfig config);
+
+	/**
+	 * Load many labeling containers, a few at a time. At most
+	 * {@link LabelingIOConfig#batchGetParallelism()} files are loaded at the same
+	 * time, and at most {@link LabelingIOConfig#batchGetReadAhead()} loaded
+	 * containers are kept ahead of the iteration. The files of a directory can
+	 * be listed with {@link io.scif.labeling.utils.LabelingUtil#listLabelings}.
+	 *
+	 * @param files the paths to the files
+	 * @param metadataType the metadata class
+	 * @param labelType the label class
+	 * @param backingType the class of the index image pixels
+	 * @param config the load and batch options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @return an iterator over the containers, which know the file they were
+	 *         loaded from. A failed load throws an
+	 *         {@link java.io.UncheckedIOException} from {@code next()}.
+	 */
+	<S, T, I extends IntegerType<I>> Iterator<Container<S, T, I>> loadAll(
+		List<String> files, Class<S> metadataType, Class<T> labelType,
+		Class<I> backingType, LabelingIOConfig config);
+
+	/**
+	 * Save many labeling containers, each to its file and with its metadata. At
+	 * most {@link LabelingIOConfig#batchGetParallelism()} containers are saved at
+	 * the same time. After a failed save no further saves are started, and the
+	 * first failure is thrown once the running saves are done.
+	 *
+	 * @param containers the containers to save, with their file set
+	 * @param config the save and batch options
+	 * @param <T> the label value
+	 * @param <I> IntegerType for the pixel value
+	 * @param <S> Class of the meta data
+	 * @throws IOException on file write fail
+	 */
+	<S, T, I extends IntegerType<I>> void saveAll(
+		Iterable<Container<S, T, I>> containers, LabelingIOConfig config)
+		throws IOException;
+
 }
@@ -0,0 +1,236 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.config;
+
+import java.util.concurrent.Executor;
+
+/**
+ * Options for loading and saving labelings with a
+ * {@link io.scif.labeling.LabelingIOService}. Setters return this config, so
+ * calls can be chained.
+ */
+public class LabelingIOConfig {
+
+	/** SCIFIO compression names for lossless TIFF index images. */
+	public static final String COMPRESSION_UNCOMPRESSED = "Uncompressed";
+	public static final String COMPRESSION_LZW = "LZW";
+
+	private boolean lazy = false;
+	private boolean cached = false;
+	private Executor executor = null;
+	private int parallelism = Runtime.getRuntime().availableProcessors();
+	private int readAhead = parallelism;
+	private boolean ordered = true;
+	private boolean computeStatistics = false;
+	private String compression = null;
+	private boolean gzip = false;
+	private boolean compact = false;
+	private boolean streaming = false;
+
+	/**
+	 * @param lazy whether to load the index image lazily: its cells are only
+	 *          decoded when a region of the labeling is accessed, and are kept
+	 *          in SCIFIO's cell cache. The index image of a lazily loaded
+	 *          labeling is read-only.
+	 * @return this config
+	 */
+	public LabelingIOConfig loaderSetLazy(final boolean lazy) {
+		this.lazy = lazy;
+		return this;
+	}
+
+	public boolean loaderIsLazy() {
+		return this.lazy;
+	}
+
+	/**
+	 * @param cached whether to load through the labeling cache of the service.
+	 *          A cached labeling is reused until its labeling file or index
+	 *          image changes on disk, and is handed out with a read-only index
+	 *          image. Lazy loads are not cached.
+	 * @return this config
+	 */
+	public LabelingIOConfig loaderSetCached(final boolean cached) {
+		this.cached = cached;
+		return this;
+	}
+
+	public boolean loaderIsCached() {
+		return this.cached;
+	}
+
+	/**
+	 * @param executor the executor running the tasks of the asynchronous load
+	 *          and save methods, e.g. a virtual thread per task executor. If
+	 *          null, the executor of the SciJava thread service is used.
+	 * @return this config
+	 */
+	public LabelingIOConfig asyncSetExecutor(final Executor executor) {
+		this.executor = executor;
+		return this;
+	}
+
+	public Executor asyncGetExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * @param parallelism the maximum number of labelings a batch load or save
+	 *          reads or writes at the same time
+	 * @return this config
+	 */
+	public LabelingIOConfig batchSetParallelism(final int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be positive: " +
+				parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	public int batchGetParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @param readAhead the maximum number of labelings a batch load keeps loaded
+	 *          ahead of the consumer, in addition to those being loaded
+	 * @return this config
+	 */
+	public LabelingIOConfig batchSetReadAhead(final int readAhead) {
+		if (readAhead < 0) {
+			throw new IllegalArgumentException("Read-ahead must not be negative: " +
+				readAhead);
+		}
+		this.readAhead = readAhead;
+		return this;
+	}
+
+	public int batchGetReadAhead() {
+		return this.readAhead;
+	}
+
+	/**
+	 * @param ordered whether a batch load returns the labelings in the order of
+	 *          the files, or in the order they finish loading
+	 * @return this config
+	 */
+	public LabelingIOConfig batchSetOrdered(final boolean ordered) {
+		this.ordered = ordered;
+		return this;
+	}
+
+	public boolean batchIsOrdered() {
+		return this.ordered;
+	}
+
+	/**
+	 * @param computeStatistics whether a save computes the voxel count,
+	 *          bounding box and centroid of each label and stores them in the
+	 *          labeling file. This takes one parallel pass over the index image,
+	 *          so it is off by default.
+	 * @return this config
+	 */
+	public LabelingIOConfig writerSetComputeStatistics(
+		final boolean computeStatistics)
+	{
+		this.computeStatistics = computeStatistics;
+		return this;
+	}
+
+	public boolean writerIsComputeStatistics() {
+		return this.computeStatistics;
+	}
+
+	/**
+	 * @param compression the compression of the index image TIFF, e.g.
+	 *          {@link #COMPRESSION_LZW}. Only lossless compressions keep the
+	 *          label set indices intact. If null, the SCIFIO default is used.
+	 * @return this config
+	 */
+	public LabelingIOConfig writerSetCompression(final String compression) {
+		this.compression = compression;
+		return this;
+	}
+
+	public String writerGetCompression() {
+		return this.compression;
+	}
+
+	/**
+	 * @param gzip whether to gzip the JSON labeling file, which is then written
+	 *          with the {@code .lbl.json.gz} ending. Gzipped files are
+	 *          recognized and decompressed on load. The entries of a
+	 *          {@code .lbl.zip} bundle are deflated instead of stored.
+	 * @return this config
+	 */
+	public LabelingIOConfig writerSetGzip(final boolean gzip) {
+		this.gzip = gzip;
+		return this;
+	}
+
+	public boolean writerIsGzip() {
+		return this.gzip;
+	}
+
+	/**
+	 * @param compact whether a save drops the label sets no pixel refers to and
+	 *          renumbers the remaining ones in the written index image. This
+	 *          takes one extra parallel pass over the index image; the labeling
+	 *          in memory is left as it is.
+	 * @return this config
+	 */
+	public LabelingIOConfig writerSetCompact(final boolean compact) {
+		this.compact = compact;
+		return this;
+	}
+
+	public boolean writerIsCompact() {
+		return this.compact;
+	}
+
+	/**
+	 * @param streaming whether the index image is written strip by strip
+	 *          straight from its source, buffering one strip at a time, instead
+	 *          of through the SCIFIO image saver. This keeps lazily computed or
+	 *          cell-backed labelings out of memory. It applies to uncompressed
+	 *          images of two to five dimensions with 8, 16 or 32 bits per pixel;
+	 *          other images are saved as usual.
+	 * @return this config
+	 */
+	public LabelingIOConfig writerSetStreaming(final boolean streaming) {
+		this.streaming = streaming;
+		return this;
+	}
+
+	public boolean writerIsStreaming() {
+		return this.streaming;
+	}
+}
@@ -29,6 +29,8 @@
 
 package io.scif.labeling.data;
 
+import java.util.function.Supplier;
+
 import net.imglib2.roi.labeling.ImgLabeling;
 import net.imglib2.type.numeric.IntegerType;
 
@@ -36,6 +38,8 @@ public class Container<S, T, I extends IntegerType<I>> {
 
 	ImgLabeling<T, I> imgLabeling;
 	S metadata;
+	Supplier<S> metadataSupplier;
+	String file;
 
 	public ImgLabeling<T, I> getImgLabeling() {
 		return imgLabeling;
@@ -45,11 +49,42 @@ public class Container<S, T, I extends IntegerType<I>> {
 		this.imgLabeling = imgLabeling;
 	}
 
-	public S getMetadata() {
+	public synchronized S getMetadata() {
+		if (metadataSupplier != null) {
+			metadata = metadataSupplier.get();
+			metadataSupplier = null;
+		}
 		return metadata;
 	}
 
-	public void setMetadata(final S metadata) {
+	public synchronized void setMetadata(final S metadata) {
 		this.metadata = metadata;
+		this.metadataSupplier = null;
+	}
+
+	/**
+	 * Sets the metadata lazily: the supplier is called once, on the first call
+	 * to {@link #getMetadata()}, and its result is kept from then on. The
+	 * supplier is called once even if several threads get the metadata.
+	 *
+	 * @param metadataSupplier supplies the metadata when it is first requested
+	 */
+	public synchronized void setMetadataSupplier(
+		final Supplier<S> metadataSupplier)
+	{
+		this.metadata = null;
+		this.metadataSupplier = metadataSupplier;
+	}
+
+	/**
+	 * @return the file the labeling was loaded from, or is saved to by a batch
+	 *         save
+	 */
+	public String getFile() {
+		return file;
+	}
+
+	public void setFile(final String file) {
+		this.file = file;
 	}
 }
@@ -0,0 +1,136 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.data;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.IntFunction;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RealLocalizable;
+import net.imglib2.RealPoint;
+import net.imglib2.labeling.data.LabelSetTable;
+import net.imglib2.labeling.data.SetStatistics;
+
+/**
+ * The voxel count, bounding box and centroid of one label, as stored in the
+ * labeling file when the labeling was saved.
+ */
+public class LabelStatistics {
+
+	private final long voxelCount;
+	private final Interval boundingBox;
+	private final RealPoint centroid;
+
+	public LabelStatistics(final long voxelCount, final Interval boundingBox,
+		final RealPoint centroid)
+	{
+		this.voxelCount = voxelCount;
+		this.boundingBox = boundingBox;
+		this.centroid = centroid;
+	}
+
+	/**
+	 * Combines the statistics of the label sets into those of the labels they
+	 * contain.
+	 *
+	 * @param setStatistics the statistics of each set
+	 * @param labelSets the label ids of each set
+	 * @param idToLabel the label of each label id
+	 * @param <T> the label type
+	 * @return the statistics of each label with at least one voxel
+	 */
+	public static <T> Map<T, LabelStatistics> of(
+		final SetStatistics setStatistics, final LabelSetTable labelSets,
+		final IntFunction<T> idToLabel)
+	{
+		final int n = setStatistics.numDimensions();
+		final Map<Integer, long[]> bounds = new LinkedHashMap<>();
+		final Map<Integer, double[]> sums = new LinkedHashMap<>();
+		final int numSets = Math.min(setStatistics.numSets(), labelSets
+			.numSets());
+		for (int set = 0; set < numSets; set++) {
+			final long count = setStatistics.count(set);
+			if (count == 0) {
+				continue;
+			}
+			for (int k = 0; k < labelSets.size(set); k++) {
+				final int id = labelSets.labelId(set, k);
+				// NB: count, then min and max of each dimension
+				final long[] b = bounds.computeIfAbsent(id, i -> new long[1 + 2 * n]);
+				final double[] sum = sums.computeIfAbsent(id, i -> new double[n]);
+				for (int d = 0; d < n; d++) {
+					final long min = setStatistics.min(set, d);
+					final long max = setStatistics.max(set, d);
+					b[1 + d] = b[0] == 0 ? min : Math.min(b[1 + d], min);
+					b[1 + n + d] = b[0] == 0 ? max : Math.max(b[1 + n + d], max);
+					sum[d] += count * setStatistics.centroid(set, d);
+				}
+				b[0] += count;
+			}
+		}
+		final Map<T, LabelStatistics> statistics = new LinkedHashMap<>();
+		bounds.forEach((id, b) -> {
+			final long[] min = new long[n];
+			final long[] max = new long[n];
+			final double[] centroid = sums.get(id);
+			for (int d = 0; d < n; d++) {
+				min[d] = b[1 + d];
+				max[d] = b[1 + n + d];
+				centroid[d] /= b[0];
+			}
+			statistics.put(idToLabel.apply(id), new LabelStatistics(b[0],
+				new FinalInterval(min, max), new RealPoint(centroid)));
+		});
+		return statistics;
+	}
+
+	/**
+	 * @return the number of voxels with the label
+	 */
+	public long getVoxelCount() {
+		return this.voxelCount;
+	}
+
+	/**
+	 * @return the smallest interval containing all voxels with the label
+	 */
+	public Interval getBoundingBox() {
+		return this.boundingBox;
+	}
+
+	/**
+	 * @return the mean position of the voxels with the label
+	 */
+	public RealLocalizable getCentroid() {
+		return this.centroid;
+	}
+}
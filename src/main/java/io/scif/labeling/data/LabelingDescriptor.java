@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What a labeling file and the header of its index image tell about a
+ * labeling, without its pixels.
+ *
+ * @param <T> the label type
+ */
+public class LabelingDescriptor<T> {
+
+	private final int numSets;
+	private final int numSources;
+	private final String indexImg;
+	private final Map<Integer, T> labelMapping;
+	private final Set<T> labels;
+	private final JsonElement metadata;
+	private final long[] dimensions;
+	private final String pixelType;
+	private final Gson gson;
+
+	/**
+	 * The metadata is read with the given Gson instance, so that it uses the
+	 * same codecs as the labeling file.
+	 */
+	public LabelingDescriptor(final int numSets, final int numSources,
+		final String indexImg, final Map<Integer, T> labelMapping,
+		final Set<T> labels, final JsonElement metadata, final long[] dimensions,
+		final String pixelType, final Gson gson)
+	{
+		this.numSets = numSets;
+		this.numSources = numSources;
+		this.indexImg = indexImg;
+		this.labelMapping = labelMapping;
+		this.labels = labels;
+		this.metadata = metadata;
+		this.dimensions = dimensions;
+		this.pixelType = pixelType;
+		this.gson = gson;
+	}
+
+	public int getNumSets() {
+		return this.numSets;
+	}
+
+	public int getNumSources() {
+		return this.numSources;
+	}
+
+	/**
+	 * @return the file name of the index image, relative to the labeling file
+	 */
+	public String getIndexImg() {
+		return this.indexImg;
+	}
+
+	/**
+	 * @return the label of each label id, empty if the labels are the
+	 *         (Integer) ids themselves
+	 */
+	public Map<Integer, T> getLabelMapping() {
+		return this.labelMapping;
+	}
+
+	/**
+	 * @return all labels occurring in a label set
+	 */
+	public Set<T> getLabels() {
+		return this.labels;
+	}
+
+	/**
+	 * @return the metadata as a JSON tree, or null if there is none
+	 */
+	public JsonElement getMetadata() {
+		return this.metadata;
+	}
+
+	/**
+	 * @param metadataType the metadata class
+	 * @param <S> the metadata type
+	 * @return the metadata, or null if there is none
+	 */
+	public <S> S getMetadata(final Class<S> metadataType) {
+		return this.gson.fromJson(this.metadata, metadataType);
+	}
+
+	/**
+	 * @return the dimensions of the index image
+	 */
+	public long[] getDimensions() {
+		return this.dimensions.clone();
+	}
+
+	/**
+	 * @return the pixel type of the index image, e.g. {@code "uint8"}
+	 */
+	public String getPixelType() {
+		return this.pixelType;
+	}
+}
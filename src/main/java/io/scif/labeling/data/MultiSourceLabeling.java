@@ -0,0 +1,163 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.scif.labeling.data;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Supplier;
+
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.converter.Converters;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.view.Views;
+import net.imglib2.view.composite.Composite;
+
+/**
+ * A labeling stored as several index images of the same size, the sources,
+ * which share one list of label sets. Overlapping label layers are kept in
+ * separate sources, so their combinations need no label sets of their own.
+ * <p>
+ * Each source is supplied when it is first accessed and kept from then on. If
+ * several threads access a source at once, it may be supplied more than once,
+ * and the first result is kept.
+ * </p>
+ *
+ * @param <T> the label type
+ * @param <I> the pixel type of the index images
+ */
+public class MultiSourceLabeling<T, I extends IntegerType<I>> {
+
+	private final List<Set<T>> labelSets;
+	private final List<Supplier<RandomAccessibleInterval<I>>> sources;
+	private final AtomicReferenceArray<RandomAccessibleInterval<I>> indexImgs;
+	private final AtomicReferenceArray<ImgLabeling<T, I>> imgLabelings;
+
+	/**
+	 * @param labelSets the label sets, indexed by the pixel values of every
+	 *          source
+	 * @param sources supply the index image of each source when it is first
+	 *          accessed
+	 */
+	public MultiSourceLabeling(final List<Set<T>> labelSets,
+		final List<Supplier<RandomAccessibleInterval<I>>> sources)
+	{
+		if (sources.isEmpty()) {
+			throw new IllegalArgumentException("A labeling needs a source");
+		}
+		this.labelSets = Collections.unmodifiableList(labelSets);
+		this.sources = new ArrayList<>(sources);
+		this.indexImgs = new AtomicReferenceArray<>(sources.size());
+		this.imgLabelings = new AtomicReferenceArray<>(sources.size());
+	}
+
+	/**
+	 * @param labelSets the label sets, indexed by the pixel values of every
+	 *          index image
+	 * @param indexImgs the index image of each source
+	 * @param <T> the label type
+	 * @param <I> the pixel type of the index images
+	 * @return the labeling of the given sources
+	 */
+	public static <T, I extends IntegerType<I>> MultiSourceLabeling<T, I> of(
+		final List<Set<T>> labelSets,
+		final List<? extends RandomAccessibleInterval<I>> indexImgs)
+	{
+		final List<Supplier<RandomAccessibleInterval<I>>> sources =
+			new ArrayList<>(indexImgs.size());
+		for (final RandomAccessibleInterval<I> indexImg : indexImgs) {
+			sources.add(() -> indexImg);
+		}
+		return new MultiSourceLabeling<>(labelSets, sources);
+	}
+
+	public int numSources() {
+		return this.sources.size();
+	}
+
+	public List<Set<T>> getLabelSets() {
+		return this.labelSets;
+	}
+
+	/**
+	 * @param source the index of the source
+	 * @return the index image of the source
+	 */
+	public RandomAccessibleInterval<I> getIndexImg(final int source) {
+		final RandomAccessibleInterval<I> indexImg = this.indexImgs.get(source);
+		if (indexImg != null) {
+			return indexImg;
+		}
+		this.indexImgs.compareAndSet(source, null, this.sources.get(source).get());
+		return this.indexImgs.get(source);
+	}
+
+	/**
+	 * @param source the index of the source
+	 * @return the labeling of the source alone
+	 */
+	public ImgLabeling<T, I> getImgLabeling(final int source) {
+		final ImgLabeling<T, I> imgLabeling = this.imgLabelings.get(source);
+		if (imgLabeling != null) {
+			return imgLabeling;
+		}
+		this.imgLabelings.compareAndSet(source, null, ImgLabeling
+			.fromImageAndLabelSets(this.getIndexImg(source), this.labelSets));
+		return this.imgLabelings.get(source);
+	}
+
+	/**
+	 * Combines the sources into a read-only view of the labels at each pixel,
+	 * the union of the label sets of all sources. This accesses every source.
+	 * The set of a pixel is reused by its accessor, so it must be copied to be
+	 * kept.
+	 *
+	 * @return the labels at each pixel
+	 */
+	public RandomAccessibleInterval<Set<T>> getLabels() {
+		final int numSources = this.numSources();
+		final List<RandomAccessibleInterval<I>> indexImgs = new ArrayList<>(
+			numSources);
+		for (int source = 0; source < numSources; source++) {
+			indexImgs.add(this.getIndexImg(source));
+		}
+		final RandomAccessibleInterval<? extends Composite<I>> stack = Views
+			.collapse(Views.stack(indexImgs));
+		return Converters.convert2(stack, (composite, labels) -> {
+			labels.clear();
+			for (int source = 0; source < numSources; source++) {
+				labels.addAll(this.labelSets.get(composite.get(source).getInteger()));
+			}
+		}, HashSet::new);
+	}
+}
@@ -0,0 +1,124 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.data;
+
+/**
+ * How long one phase of a load or save took, with the bytes and items it
+ * handled.
+ */
+public class PhaseTiming {
+
+	/** The phases of loading and saving a labeling. */
+	public enum Phase {
+			/** Reading and parsing the labeling file. */
+			READ_LABELING_FILE,
+			/** Opening the index image; a lazy open only reads its header. */
+			READ_INDEX_IMG,
+			/** Resolving the label ids of each label set to labels. */
+			BUILD_LABEL_SETS,
+			/** Creating the ImgLabeling from the index image and label sets. */
+			BUILD_LABELING,
+			/** Dropping the label sets no pixel refers to. */
+			COMPACT,
+			/** Computing the statistics of each label set. */
+			COMPUTE_STATISTICS,
+			/** Writing the index image. */
+			WRITE_INDEX_IMG,
+			/** Writing the labeling file. */
+			WRITE_LABELING_FILE
+	}
+
+	private final Phase phase;
+	private final String file;
+	private final long nanos;
+	private final long bytes;
+	private final long count;
+	private final long allocatedBytes;
+
+	public PhaseTiming(final Phase phase, final String file, final long nanos,
+		final long bytes, final long count, final long allocatedBytes)
+	{
+		this.phase = phase;
+		this.file = file;
+		this.nanos = nanos;
+		this.bytes = bytes;
+		this.count = count;
+		this.allocatedBytes = allocatedBytes;
+	}
+
+	public Phase getPhase() {
+		return this.phase;
+	}
+
+	/**
+	 * @return the file read or written in this phase, or the labeling file of
+	 *         the load or save for the phases without file access; null for
+	 *         loads and saves of streams
+	 */
+	public String getFile() {
+		return this.file;
+	}
+
+	public long getNanos() {
+		return this.nanos;
+	}
+
+	/**
+	 * @return the size of the file read or written, or -1 for the phases
+	 *         without file access
+	 */
+	public long getBytes() {
+		return this.bytes;
+	}
+
+	/**
+	 * @return the number of label sets, or of pixels for the index image
+	 *         phases
+	 */
+	public long getCount() {
+		return this.count;
+	}
+
+	/**
+	 * @return the bytes allocated by the calling thread during the phase, or -1
+	 *         if the JVM does not measure them. Work handed to other threads,
+	 *         e.g. the parallel statistics, is not included.
+	 */
+	public long getAllocatedBytes() {
+		return this.allocatedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return this.phase + " " + this.file + ": " + this.nanos / 1000 + " us, " +
+			this.bytes + " bytes, count " + this.count + ", allocated " +
+			this.allocatedBytes + " bytes";
+	}
+}
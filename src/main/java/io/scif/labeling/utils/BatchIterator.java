@@ -0,0 +1,155 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.utils;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.function.Function;
+
+/**
+ * Iterates over the results of loading a list of files, starting at most
+ * {@code parallelism} loads at a time and keeping at most {@code readAhead}
+ * results ahead of the consumer. Results are returned in the order of the
+ * files, or in the order the loads finish. A failed load throws an
+ * {@link UncheckedIOException} from {@link #next()}, and iteration may go on.
+ *
+ * @param <R> the result of a load
+ */
+public class BatchIterator<R> implements Iterator<R> {
+
+	private final List<String> files;
+	private final Function<String, CompletableFuture<R>> loader;
+	private final int parallelism;
+	private final int window;
+	private final boolean ordered;
+	private final Deque<CompletableFuture<R>> started = new ArrayDeque<>();
+	private final BlockingQueue<CompletableFuture<R>> done =
+		new LinkedBlockingQueue<>();
+	private int next = 0;
+	private int running = 0;
+	private int consumed = 0;
+
+	/**
+	 * @param files the files to load
+	 * @param loader starts loading the given file
+	 * @param parallelism the maximum number of loads running at the same time
+	 * @param readAhead the maximum number of results kept ahead of the consumer
+	 * @param ordered whether to return the results in the order of the files
+	 */
+	public BatchIterator(final List<String> files,
+		final Function<String, CompletableFuture<R>> loader, final int parallelism,
+		final int readAhead, final boolean ordered)
+	{
+		this.files = files;
+		this.loader = loader;
+		this.parallelism = parallelism;
+		this.window = parallelism + readAhead;
+		this.ordered = ordered;
+	}
+
+	@Override
+	public synchronized boolean hasNext() {
+		return this.consumed < this.files.size();
+	}
+
+	@Override
+	public R next() {
+		final CompletableFuture<R> future;
+		synchronized (this) {
+			if (!this.hasNext()) {
+				throw new NoSuchElementException();
+			}
+			this.startLoads();
+			this.consumed++;
+			future = this.ordered ? this.started.poll() : null;
+		}
+		try {
+			return join(future != null ? future : this.done.take());
+		}
+		catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new UncheckedIOException(new InterruptedIOException(
+				"Interrupted while waiting for a labeling"));
+		}
+		finally {
+			synchronized (this) {
+				this.startLoads();
+			}
+		}
+	}
+
+	private void startLoads() {
+		while (this.next < this.files.size() && this.running < this.parallelism &&
+			this.next - this.consumed < this.window)
+		{
+			final CompletableFuture<R> future = this.loader.apply(this.files.get(
+				this.next++));
+			this.running++;
+			if (this.ordered) {
+				this.started.add(future);
+			}
+			future.whenComplete((result, t) -> this.finished(future));
+		}
+	}
+
+	private synchronized void finished(final CompletableFuture<R> future) {
+		this.running--;
+		if (!this.ordered) {
+			this.done.add(future);
+		}
+		this.startLoads();
+	}
+
+	private static <R> R join(final CompletableFuture<R> future) {
+		try {
+			return future.join();
+		}
+		catch (final CompletionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof IOException) {
+				throw new UncheckedIOException((IOException) cause);
+			}
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw e;
+		}
+	}
+}
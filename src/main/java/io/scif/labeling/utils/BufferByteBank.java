@@ -0,0 +1,100 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.utils;
+
+import java.nio.ByteBuffer;
+
+import org.scijava.io.ByteBank;
+
+/**
+ * A read-only {@link ByteBank} over a buffer, e.g. a bundle entry mapped from
+ * its file, so that SCIFIO can read it through a
+ * {@link org.scijava.io.location.BytesLocation} without copying it.
+ */
+public final class BufferByteBank implements ByteBank {
+
+	private final ByteBuffer buffer;
+
+	/**
+	 * @param buffer the bytes, from its position to its limit
+	 */
+	public BufferByteBank(final ByteBuffer buffer) {
+		this.buffer = buffer.slice();
+	}
+
+	@Override
+	public byte getByte(final long pos) {
+		checkReadPos(pos, pos);
+		return this.buffer.get((int) pos);
+	}
+
+	@Override
+	public int getBytes(final long startPos, final byte[] bytes,
+		final int offset, final int length)
+	{
+		checkReadPos(startPos, startPos + length);
+		final int n = (int) Math.min(size() - startPos, length);
+		((ByteBuffer) this.buffer.duplicate().position((int) startPos)).get(bytes,
+			offset, n);
+		return n;
+	}
+
+	@Override
+	public void setBytes(final long startPos, final byte[] bytes,
+		final int offset, final int length)
+	{
+		throw new UnsupportedOperationException("Read-only byte bank");
+	}
+
+	@Override
+	public void setByte(final long pos, final byte b) {
+		throw new UnsupportedOperationException("Read-only byte bank");
+	}
+
+	@Override
+	public void clear() {
+		throw new UnsupportedOperationException("Read-only byte bank");
+	}
+
+	@Override
+	public long size() {
+		return this.buffer.limit();
+	}
+
+	@Override
+	public long getMaxBufferSize() {
+		return this.buffer.limit();
+	}
+
+	@Override
+	public boolean isReadOnly() {
+		return true;
+	}
+}
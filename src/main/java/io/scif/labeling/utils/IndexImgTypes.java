@@ -0,0 +1,362 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.utils;
+
+import java.util.function.LongSupplier;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.Sampler;
+import net.imglib2.converter.Converters;
+import net.imglib2.converter.readwrite.SamplerConverter;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.ByteType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.LongType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedIntType;
+import net.imglib2.type.numeric.integer.UnsignedLongType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Converts index images between integer types without copying them: to the
+ * narrowest unsigned type that holds all set indices when saving, and to the
+ * requested backing type when loading. Indices can also be remapped on the
+ * fly. Only a labeling that may soon outgrow its narrow stored type is copied
+ * on load.
+ */
+public final class IndexImgTypes {
+
+	private IndexImgTypes() {
+		// NB: static utility class
+	}
+
+	/**
+	 * @param maxValue the largest value to hold
+	 * @return the narrowest unsigned integer type that holds
+	 *         {@code 0..maxValue}
+	 */
+	public static IntegerType<?> narrowestUnsignedType(final long maxValue) {
+		if (maxValue < 1L << 8) return new UnsignedByteType();
+		if (maxValue < 1L << 16) return new UnsignedShortType();
+		if (maxValue < 1L << 32) return new UnsignedIntType();
+		return new UnsignedLongType();
+	}
+
+	/**
+	 * Presents an index image in the narrowest unsigned type that holds
+	 * {@code numSets} set indices, as a read-only view. If the image type is
+	 * not wider than that, the image itself is returned.
+	 *
+	 * @param img the index image
+	 * @param numSets the number of label sets
+	 * @return the image in the narrowest suitable type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static RandomAccessibleInterval<? extends IntegerType<?>> narrow(
+		final RandomAccessibleInterval<? extends IntegerType<?>> img,
+		final int numSets)
+	{
+		final IntegerType narrow = narrowestUnsignedType(Math.max(0, numSets - 1));
+		if (narrow.getBitsPerPixel() >= img.getType().getBitsPerPixel()) {
+			return img;
+		}
+		return Converters.convert((RandomAccessibleInterval) img, (in,
+			out) -> ((IntegerType) out).setInteger(((IntegerType) in)
+				.getIntegerLong()), narrow);
+	}
+
+	/**
+	 * Presents an index image as the given integer type. If the image already
+	 * has that type, it is returned as it is. For the integer types of ImgLib2
+	 * the view is writable; writes outside the range of the stored type throw
+	 * an {@link IllegalArgumentException} instead of wrapping around. Other
+	 * types get a read-only view.
+	 *
+	 * @param img the stored index image
+	 * @param type the requested type
+	 * @param <I> the requested type
+	 * @return a view of the image with the requested type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static <I extends IntegerType<I>> RandomAccessibleInterval<I> asType(
+		final RandomAccessibleInterval<? extends IntegerType<?>> img,
+		final Class<I> type)
+	{
+		final IntegerType<?> storedType = img.getType();
+		if (type.isInstance(storedType)) {
+			return (RandomAccessibleInterval<I>) img;
+		}
+		final SamplerConverter<IntegerType<?>, I> converter = samplerConverter(
+			type, storedType, false);
+		if (converter != null) {
+			return Converters.convert((RandomAccessibleInterval) img, converter);
+		}
+		return Converters.convert((RandomAccessibleInterval) img, (in,
+			out) -> ((IntegerType) out).setInteger(((IntegerType) in)
+				.getIntegerLong()), newInstance(type));
+	}
+
+	/**
+	 * Presents an index image as the given integer type. If the requested type
+	 * holds more values than the stored type, the image is copied into the
+	 * requested type, so every set index of the requested type can be written.
+	 * Otherwise the image is viewed as the requested type like {@link #asType},
+	 * as every value written to the view fits into the stored type. A wider
+	 * type that is not a {@link NativeType} gets a {@link #readOnly} view, as
+	 * there is no image to copy it into.
+	 *
+	 * @param img the stored index image
+	 * @param type the requested type
+	 * @param <I> the requested type
+	 * @return the image with the requested type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static <I extends IntegerType<I>> RandomAccessibleInterval<I>
+		asWritableType(final RandomAccessibleInterval<? extends IntegerType<?>> img,
+			final Class<I> type)
+	{
+		final IntegerType<?> storedType = img.getType();
+		if (type.isInstance(storedType)) {
+			return asType(img, type);
+		}
+		final I requested = newInstance(type);
+		if (requested.getMaxValue() <= storedType.getMaxValue()) {
+			return asType(img, type);
+		}
+		if (!(requested instanceof NativeType)) {
+			return readOnly(img, type);
+		}
+		final Img<I> copy = (Img) Util.getSuitableImgFactory(img,
+			(NativeType) requested).create(img);
+		final Cursor<? extends IntegerType<?>> in = Views.flatIterable(img)
+			.cursor();
+		for (final I out : Views.flatIterable(copy)) {
+			out.setInteger(in.next().getIntegerLong());
+		}
+		return Views.isZeroMin(img) ? copy : Views.translate(copy, Intervals
+			.minAsLongArray(img));
+	}
+
+	/**
+	 * Presents an index image as the given integer type, rejecting writes. For
+	 * the integer types of ImgLib2 a write throws an
+	 * {@link UnsupportedOperationException}; other types get a view that
+	 * ignores writes.
+	 *
+	 * @param img the stored index image
+	 * @param type the requested type
+	 * @param <I> the requested type
+	 * @return a read-only view of the image with the requested type
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static <I extends IntegerType<I>> RandomAccessibleInterval<I>
+		readOnly(final RandomAccessibleInterval<? extends IntegerType<?>> img,
+			final Class<I> type)
+	{
+		final SamplerConverter<IntegerType<?>, I> converter = samplerConverter(
+			type, img.getType(), true);
+		if (converter != null) {
+			return Converters.convert((RandomAccessibleInterval) img, converter);
+		}
+		return Converters.convert((RandomAccessibleInterval) img, (in,
+			out) -> ((IntegerType) out).setInteger(((IntegerType) in)
+				.getIntegerLong()), newInstance(type));
+	}
+
+	/**
+	 * Presents an index image with its indices replaced, as a read-only view of
+	 * the given integer type. Indices not covered by the lookup table become 0.
+	 *
+	 * @param img the stored index image
+	 * @param lookup the new index of each stored index
+	 * @param type the requested type
+	 * @param <I> the requested type
+	 * @return a view of the image with the new indices
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public static <I extends IntegerType<I>> RandomAccessibleInterval<I> remap(
+		final RandomAccessibleInterval<? extends IntegerType<?>> img,
+		final int[] lookup, final Class<I> type)
+	{
+		return Converters.convert((RandomAccessibleInterval) img, (in, out) -> {
+			final long index = ((IntegerType) in).getIntegerLong();
+			((IntegerType) out).setInteger(index >= 0 && index < lookup.length
+				? lookup[(int) index] : 0);
+		}, newInstance(type));
+	}
+
+	private static <I> I newInstance(final Class<I> type) {
+		try {
+			return type.getDeclaredConstructor().newInstance();
+		}
+		catch (final ReflectiveOperationException e) {
+			throw new IllegalArgumentException("Cannot instantiate " + type, e);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <I extends IntegerType<I>> SamplerConverter<IntegerType<?>, I>
+		samplerConverter(final Class<I> type, final IntegerType<?> storedType,
+			final boolean readOnly)
+	{
+		final long min = (long) storedType.getMinValue();
+		final long max = (long) storedType.getMaxValue();
+		if (type == IntType.class || type == UnsignedIntType.class) {
+			return sampler -> {
+				final Accessor accessor = new Accessor(sampler, min, max,
+					readOnly);
+				final IntAccess access = new IntAccess() {
+
+					@Override
+					public int getValue(final int index) {
+						return (int) accessor.getAsLong();
+					}
+
+					@Override
+					public void setValue(final int index, final int value) {
+						accessor.set(type == IntType.class ? value : value & 0xffffffffL);
+					}
+				};
+				return (I) (type == IntType.class ? new IntType(access)
+					: new UnsignedIntType(access));
+			};
+		}
+		if (type == LongType.class || type == UnsignedLongType.class) {
+			return sampler -> {
+				final Accessor accessor = new Accessor(sampler, min, max,
+					readOnly);
+				final LongAccess access = new LongAccess() {
+
+					@Override
+					public long getValue(final int index) {
+						return accessor.getAsLong();
+					}
+
+					@Override
+					public void setValue(final int index, final long value) {
+						accessor.set(value);
+					}
+				};
+				return (I) (type == LongType.class ? new LongType(access)
+					: new UnsignedLongType(access));
+			};
+		}
+		if (type == ShortType.class || type == UnsignedShortType.class) {
+			return sampler -> {
+				final Accessor accessor = new Accessor(sampler, min, max,
+					readOnly);
+				final ShortAccess access = new ShortAccess() {
+
+					@Override
+					public short getValue(final int index) {
+						return (short) accessor.getAsLong();
+					}
+
+					@Override
+					public void setValue(final int index, final short value) {
+						accessor.set(type == ShortType.class ? value : value & 0xffff);
+					}
+				};
+				return (I) (type == ShortType.class ? new ShortType(access)
+					: new UnsignedShortType(access));
+			};
+		}
+		if (type == ByteType.class || type == UnsignedByteType.class) {
+			return sampler -> {
+				final Accessor accessor = new Accessor(sampler, min, max,
+					readOnly);
+				final ByteAccess access = new ByteAccess() {
+
+					@Override
+					public byte getValue(final int index) {
+						return (byte) accessor.getAsLong();
+					}
+
+					@Override
+					public void setValue(final int index, final byte value) {
+						accessor.set(type == ByteType.class ? value : value & 0xff);
+					}
+				};
+				return (I) (type == ByteType.class ? new ByteType(access)
+					: new UnsignedByteType(access));
+			};
+		}
+		return null;
+	}
+
+	/**
+	 * Reads and range-checked writes of the stored value under a sampler, or
+	 * reads only.
+	 */
+	private static class Accessor implements LongSupplier {
+
+		private final Sampler<? extends IntegerType<?>> sampler;
+		private final long min;
+		private final long max;
+		private final boolean readOnly;
+
+		private Accessor(final Sampler<? extends IntegerType<?>> sampler,
+			final long min, final long max, final boolean readOnly)
+		{
+			this.sampler = sampler;
+			this.min = min;
+			this.max = max;
+			this.readOnly = readOnly;
+		}
+
+		@Override
+		public long getAsLong() {
+			return this.sampler.get().getIntegerLong();
+		}
+
+		private void set(final long value) {
+			if (this.readOnly) {
+				throw new UnsupportedOperationException("Index image is read-only");
+			}
+			if (value < this.min || value > this.max) {
+				throw new IllegalArgumentException("Index " + value +
+					" does not fit into the stored index image type " + this.sampler
+						.get().getClass().getSimpleName());
+			}
+			this.sampler.get().setInteger(value);
+		}
+	}
+}
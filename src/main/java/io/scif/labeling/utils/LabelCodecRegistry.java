@@ -0,0 +1,135 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.scif.labeling.utils;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.IntFunction;
+
+/**
+ * The codecs of label types, which read and write the labels of a registered
+ * class in the label mapping of labeling files instead of Gson reflection.
+ * The codecs apply to the label values only; the metadata and the fields of
+ * unregistered labels are handled by Gson alone.
+ */
+public class LabelCodecRegistry {
+
+	private final Map<Class<?>, TypeAdapter<?>> codecs = new HashMap<>();
+
+	/**
+	 * @param labelType the label class, matched exactly
+	 * @param codec reads and writes labels of the class
+	 * @param <T> the label type
+	 * @return this registry
+	 */
+	public synchronized <T> LabelCodecRegistry register(
+		final Class<T> labelType, final TypeAdapter<T> codec)
+	{
+		this.codecs.put(labelType, codec.nullSafe());
+		return this;
+	}
+
+	/**
+	 * @param labelType the label class
+	 * @return this registry
+	 */
+	public synchronized LabelCodecRegistry unregister(final Class<?> labelType) {
+		this.codecs.remove(labelType);
+		return this;
+	}
+
+	/**
+	 * @param labelType the label class
+	 * @param <T> the label type
+	 * @return the codec registered for the class, or null if there is none
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <T> TypeAdapter<T> get(final Class<T> labelType) {
+		return (TypeAdapter<T>) this.codecs.get(labelType);
+	}
+
+	/**
+	 * @param gson the Gson instance used for unregistered label classes
+	 * @param labelType the label class
+	 * @param <T> the label type
+	 * @return the codec registered for the class, or the adapter of Gson
+	 */
+	public <T> TypeAdapter<T> adapter(final Gson gson,
+		final Class<T> labelType)
+	{
+		final TypeAdapter<T> codec = this.get(labelType);
+		return codec != null ? codec : gson.getAdapter(labelType);
+	}
+
+	/**
+	 * @param gson the Gson instance used for unregistered label classes
+	 * @return the adapter of each label class, with the codecs registered now
+	 */
+	public synchronized Function<Class<?>, TypeAdapter<?>> adapters(
+		final Gson gson)
+	{
+		final Map<Class<?>, TypeAdapter<?>> snapshot = new HashMap<>(this.codecs);
+		return labelType -> {
+			final TypeAdapter<?> codec = snapshot.get(labelType);
+			return codec != null ? codec : gson.getAdapter(labelType);
+		};
+	}
+
+	/**
+	 * Labeling files of Integer labels have no label mapping, their label sets
+	 * hold the labels themselves. This converts such a label to the requested
+	 * label type. For other label types the function fails on the first id, so
+	 * a labeling without any label is read with any label type.
+	 *
+	 * @param labelType the label class
+	 * @param <T> the label type
+	 * @return the label of each id, throwing an
+	 *         {@link IllegalArgumentException} if the ids are no labels of the
+	 *         type
+	 */
+	public static <T> IntFunction<T> idsAsLabels(final Class<T> labelType) {
+		if (labelType.isAssignableFrom(Integer.class)) {
+			return id -> labelType.cast(Integer.valueOf(id));
+		}
+		if (labelType == Long.class) {
+			return id -> labelType.cast(Long.valueOf(id));
+		}
+		if (labelType == String.class) {
+			return id -> labelType.cast(String.valueOf(id));
+		}
+		return id -> {
+			throw new IllegalArgumentException("The labeling has no label " +
+				"mapping, so its labels are integers, not " + labelType.getName());
+		};
+	}
+}
@@ -0,0 +1,293 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+package io.scif.labeling.utils;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Writes and reads the entries of a labeling bundle, a zip file holding the
+ * labeling file and the index image. Stored (uncompressed) entries are
+ * memory-mapped on read, so the index image is decoded straight from the
+ * mapped file; deflated entries are inflated into memory. Either way an entry
+ * is read into a single buffer, so entries are limited to
+ * {@link #MAX_ENTRY_SIZE} bytes.
+ */
+public final class LabelingBundle {
+
+	/** The size limit of an entry, that of the largest array or buffer. */
+	public static final long MAX_ENTRY_SIZE = Integer.MAX_VALUE - 8;
+
+	private static final int LOCAL_HEADER = 0x04034b50;
+	private static final int CENTRAL_HEADER = 0x02014b50;
+	private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+	private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+	private static final long ZIP64 = 0xffffffffL;
+
+	private LabelingBundle() {
+		// NB: static utility class
+	}
+
+	/**
+	 * Writes the content of an entry.
+	 */
+	@FunctionalInterface
+	public interface EntryWriter {
+
+		void write(OutputStream out) throws IOException;
+	}
+
+	/**
+	 * Adds an entry to the zip stream. Since the size and checksum of a stored
+	 * entry precede its content, the content is written once to a temporary
+	 * file, which yields them, and then copied into the zip stream.
+	 *
+	 * @param zip the zip stream
+	 * @param name the entry name
+	 * @param stored whether to store the entry uncompressed, or deflate it
+	 * @param content writes the content of the entry, without closing the
+	 *          stream
+	 * @throws IOException on write fail, or if a stored entry exceeds
+	 *           {@link #MAX_ENTRY_SIZE}
+	 */
+	public static void putEntry(final ZipOutputStream zip, final String name,
+		final boolean stored, final EntryWriter content) throws IOException
+	{
+		final ZipEntry entry = new ZipEntry(name);
+		if (!stored) {
+			zip.putNextEntry(entry);
+			content.write(zip);
+			zip.closeEntry();
+			return;
+		}
+		final Path temp = Files.createTempFile("bundle-entry", null);
+		try {
+			final CRC32 crc = new CRC32();
+			try (final OutputStream out = new CheckedOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(temp)), crc))
+			{
+				content.write(out);
+			}
+			final long size = Files.size(temp);
+			if (size > MAX_ENTRY_SIZE) {
+				throw new IOException("Entry " + name + " of " + size +
+					" bytes exceeds the size limit of a bundle entry");
+			}
+			entry.setMethod(ZipEntry.STORED);
+			entry.setSize(size);
+			entry.setCompressedSize(size);
+			entry.setCrc(crc.getValue());
+			zip.putNextEntry(entry);
+			Files.copy(temp, zip);
+			zip.closeEntry();
+		}
+		finally {
+			Files.deleteIfExists(temp);
+		}
+	}
+
+	/**
+	 * Reads an entry of a bundle file. A stored entry is mapped, any other
+	 * entry, or an entry of a ZIP64 archive, is inflated into memory.
+	 *
+	 * @param path the bundle file
+	 * @param name the entry name
+	 * @return the content of the entry
+	 * @throws IOException if the file is not a zip file, lacks the entry, or
+	 *           the entry exceeds {@link #MAX_ENTRY_SIZE}
+	 */
+	public static ByteBuffer entry(final Path path, final String name)
+		throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(path,
+			StandardOpenOption.READ))
+		{
+			final long size = channel.size();
+			final ByteBuffer tail = read(channel, size - Math.min(size,
+				END_OF_CENTRAL_DIRECTORY_SIZE + 0xffff), (int) Math.min(size,
+					END_OF_CENTRAL_DIRECTORY_SIZE + 0xffff));
+			int end = tail.limit() - END_OF_CENTRAL_DIRECTORY_SIZE;
+			while (end >= 0 && tail.getInt(end) != END_OF_CENTRAL_DIRECTORY) {
+				end--;
+			}
+			if (end < 0) {
+				throw new IOException("Not a labeling bundle: " + path);
+			}
+			final long directorySize = tail.getInt(end + 12) & 0xffffffffL;
+			final long directoryOffset = tail.getInt(end + 16) & 0xffffffffL;
+			if (directoryOffset == ZIP64 || directorySize == ZIP64) {
+				return inflate(path, name);
+			}
+			final ByteBuffer directory = read(channel, directoryOffset,
+				(int) directorySize);
+			final byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+			for (int p = 0; p + 46 <= directory.limit() && directory.getInt(
+				p) == CENTRAL_HEADER;)
+			{
+				final int method = directory.getShort(p + 10) & 0xffff;
+				final long compressedSize = directory.getInt(p + 20) & 0xffffffffL;
+				final int nameLength = directory.getShort(p + 28) & 0xffff;
+				final int extraLength = directory.getShort(p + 30) & 0xffff;
+				final int commentLength = directory.getShort(p + 32) & 0xffff;
+				final long offset = directory.getInt(p + 42) & 0xffffffffL;
+				final byte[] entryName = new byte[nameLength];
+				((ByteBuffer) directory.duplicate().position(p + 46)).get(entryName);
+				p += 46 + nameLength + extraLength + commentLength;
+				if (!Arrays.equals(nameBytes, entryName)) {
+					continue;
+				}
+				if (method != ZipEntry.STORED || compressedSize == ZIP64 ||
+					offset == ZIP64)
+				{
+					return inflate(path, name);
+				}
+				if (compressedSize > MAX_ENTRY_SIZE) {
+					throw new IOException("Entry " + name + " of " + path +
+						" exceeds the size limit of a bundle entry");
+				}
+				final ByteBuffer local = read(channel, offset, 30);
+				if (local.getInt(0) != LOCAL_HEADER) {
+					throw new IOException("Corrupt labeling bundle: " + path);
+				}
+				final long data = offset + 30 + (local.getShort(26) & 0xffff) +
+					(local.getShort(28) & 0xffff);
+				return channel.map(FileChannel.MapMode.READ_ONLY, data,
+					compressedSize);
+			}
+			throw new IOException("No entry " + name + " in " + path);
+		}
+	}
+
+	/**
+	 * Reads the rest of the stream into a buffer, growing it as needed since the
+	 * size of a zip entry is not always known in advance.
+	 *
+	 * @param in the stream
+	 * @return the bytes read
+	 * @throws IOException on read fail, or if the stream holds more than
+	 *           {@link #MAX_ENTRY_SIZE} bytes
+	 */
+	public static ByteBuffer readFully(final InputStream in) throws IOException {
+		byte[] bytes = new byte[1 << 16];
+		int length = 0;
+		for (int n; (n = in.read(bytes, length, bytes.length - length)) >= 0;) {
+			length += n;
+			if (length < bytes.length) {
+				continue;
+			}
+			if (length == MAX_ENTRY_SIZE) {
+				if (in.read() >= 0) {
+					throw new IOException(
+						"Entry exceeds the size limit of a bundle entry of " +
+							MAX_ENTRY_SIZE + " bytes");
+				}
+				break;
+			}
+			bytes = Arrays.copyOf(bytes, (int) Math.min(2L * bytes.length,
+				MAX_ENTRY_SIZE));
+		}
+		return ByteBuffer.wrap(bytes, 0, length);
+	}
+
+	/**
+	 * @param buffer the bytes to read, from the position to the limit
+	 * @return a stream reading the buffer, without copying it
+	 */
+	public static InputStream newInputStream(final ByteBuffer buffer) {
+		final ByteBuffer bytes = buffer.slice();
+		return new InputStream() {
+
+			@Override
+			public int read() {
+				return bytes.hasRemaining() ? bytes.get() & 0xff : -1;
+			}
+
+			@Override
+			public int read(final byte[] b, final int off, final int len) {
+				if (len == 0) {
+					return 0;
+				}
+				if (!bytes.hasRemaining()) {
+					return -1;
+				}
+				final int n = Math.min(len, bytes.remaining());
+				bytes.get(b, off, n);
+				return n;
+			}
+
+			@Override
+			public int available() {
+				return bytes.remaining();
+			}
+		};
+	}
+
+	private static ByteBuffer inflate(final Path path, final String name)
+		throws IOException
+	{
+		try (final ZipFile zip = new ZipFile(path.toFile())) {
+			final ZipEntry entry = zip.getEntry(name);
+			if (entry == null) {
+				throw new IOException("No entry " + name + " in " + path);
+			}
+			try (final InputStream in = zip.getInputStream(entry)) {
+				return readFully(in);
+			}
+		}
+	}
+
+	private static ByteBuffer read(final FileChannel channel,
+		final long position, final int length) throws IOException
+	{
+		final ByteBuffer buffer = ByteBuffer.allocate(length).order(
+			ByteOrder.LITTLE_ENDIAN);
+		while (buffer.hasRemaining()) {
+			if (channel.read(buffer, position + buffer.position()) < 0) {
+				throw new IOException("Unexpected end of labeling bundle");
+			}
+		}
+		buffer.flip();
+		return buffer;
+	}
+}
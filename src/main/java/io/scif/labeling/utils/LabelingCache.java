@@ -0,0 +1,209 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.utils;
+
+import java.io.IOException;
+import java.lang.ref.Reference;
+import java.lang.ref.SoftReference;
+import java.lang.ref.WeakReference;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Predicate;
+
+/**
+ * A least recently used cache of loaded labelings, bounded by an estimate of
+ * their memory size. Values are held strongly, or through soft or weak
+ * references that the garbage collector may clear; cleared values count as
+ * misses.
+ */
+public class LabelingCache {
+
+	/** How the cache holds its values. */
+	public enum ReferenceType {
+			STRONG, SOFT, WEAK
+	}
+
+	private final Map<Object, Entry> entries = new LinkedHashMap<>(16, 0.75f,
+		true);
+	private long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+	private ReferenceType referenceType = ReferenceType.SOFT;
+	private long size = 0;
+	private long hits = 0;
+	private long misses = 0;
+
+	/**
+	 * @param key the key of the value
+	 * @param isValid whether a cached value is still up to date
+	 * @param <V> the value type
+	 * @return the cached value, or null if there is none, it was cleared, or it
+	 *         is out of date
+	 */
+	@SuppressWarnings("unchecked")
+	public synchronized <V> V get(final Object key,
+		final Predicate<? super V> isValid)
+	{
+		final Entry entry = this.entries.get(key);
+		final V value = entry == null ? null : (V) entry.get();
+		if (value == null || !isValid.test(value)) {
+			if (entry != null) {
+				this.remove(key);
+			}
+			this.misses++;
+			return null;
+		}
+		this.hits++;
+		return value;
+	}
+
+	/**
+	 * Caches the value, evicting the least recently used values until it fits
+	 * into the memory budget. Values larger than the budget are not cached.
+	 *
+	 * @param key the key of the value
+	 * @param value the value
+	 * @param bytes the estimated memory size of the value
+	 */
+	public synchronized void put(final Object key, final Object value,
+		final long bytes)
+	{
+		this.remove(key);
+		if (bytes > this.memoryBudget) {
+			return;
+		}
+		this.entries.put(key, new Entry(value, bytes, this.referenceType));
+		this.size += bytes;
+		this.evict();
+	}
+
+	public synchronized void clear() {
+		this.entries.clear();
+		this.size = 0;
+	}
+
+	/**
+	 * @param memoryBudget the maximum estimated memory size of all cached values
+	 */
+	public synchronized void setMemoryBudget(final long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+		this.evict();
+	}
+
+	public synchronized long getMemoryBudget() {
+		return this.memoryBudget;
+	}
+
+	/**
+	 * @param referenceType how values cached from now on are held
+	 */
+	public synchronized void setReferenceType(
+		final ReferenceType referenceType)
+	{
+		this.referenceType = referenceType;
+	}
+
+	public synchronized ReferenceType getReferenceType() {
+		return this.referenceType;
+	}
+
+	/**
+	 * @return the estimated memory size of the cached values, including values
+	 *         cleared by the garbage collector that were not yet looked up
+	 */
+	public synchronized long size() {
+		return this.size;
+	}
+
+	public synchronized long hits() {
+		return this.hits;
+	}
+
+	public synchronized long misses() {
+		return this.misses;
+	}
+
+	/**
+	 * @param files the files a cached value was loaded from
+	 * @return the modification times and sizes of the files, to tell whether a
+	 *         cached value is out of date
+	 * @throws IOException on file read fail
+	 */
+	public static List<Object> stamp(final Path... files) throws IOException {
+		final List<Object> stamp = new ArrayList<>(2 * files.length);
+		for (final Path file : files) {
+			final BasicFileAttributes attributes = Files.readAttributes(file,
+				BasicFileAttributes.class);
+			stamp.add(attributes.lastModifiedTime());
+			stamp.add(attributes.size());
+		}
+		return stamp;
+	}
+
+	private void remove(final Object key) {
+		final Entry entry = this.entries.remove(key);
+		if (entry != null) {
+			this.size -= entry.bytes;
+		}
+	}
+
+	private void evict() {
+		final Iterator<Entry> iterator = this.entries.values().iterator();
+		while (this.size > this.memoryBudget && iterator.hasNext()) {
+			this.size -= iterator.next().bytes;
+			iterator.remove();
+		}
+	}
+
+	private static class Entry {
+
+		private final Object value;
+		private final Reference<Object> reference;
+		private final long bytes;
+
+		private Entry(final Object value, final long bytes,
+			final ReferenceType referenceType)
+		{
+			this.value = referenceType == ReferenceType.STRONG ? value : null;
+			this.reference = referenceType == ReferenceType.SOFT
+				? new SoftReference<>(value) : referenceType == ReferenceType.WEAK
+					? new WeakReference<>(value) : null;
+			this.bytes = bytes;
+		}
+
+		private Object get() {
+			return this.reference == null ? this.value : this.reference.get();
+		}
+	}
+}
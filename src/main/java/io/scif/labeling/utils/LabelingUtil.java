@@ -33,7 +33,21 @@ import io.scif.config.SCIFIOConfig;
 import io.scif.img.ImgIOException;
 import io.scif.img.ImgSaver;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import java.util.zip.GZIPInputStream;
 
 import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.exception.IncompatibleTypeException;
@@ -45,7 +59,13 @@ import org.scijava.Context;
 public class LabelingUtil {
 
 	public static final String LBL_ENDING = ".lbl.json";
+	public static final String BIN_ENDING = ".lbl.bin";
+	public static final String GZIP_ENDING = ".lbl.json.gz";
 	public static final String TIF_ENDING = ".tif";
+	public static final String ZIP_ENDING = ".lbl.zip";
+	/** The entry names of the labeling file and index image of a bundle. */
+	public static final String BUNDLE_LABELING_ENTRY = "labeling" + LBL_ENDING;
+	public static final String BUNDLE_INDEX_IMG_ENTRY = "labeling" + TIF_ENDING;
 	public final static int VERSION = 3;
 
 	/**
@@ -53,18 +73,119 @@ public class LabelingUtil {
 	 * @param filename the filename of the Img to save
 	 * @param rai the img
 	 * @param <T> the pixel value
+	 * @throws UncheckedIOException on file write fail
 	 */
 	public static <T extends RealType<T>> void saveAsTiff(final Context context,
 		final String filename, final RandomAccessibleInterval<T> rai)
 	{
+		try {
+			saveAsTiff(context, filename, rai, null);
+		}
+		catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
 
+	/**
+	 * @param context the scijava context used in the project
+	 * @param filename the filename of the Img to save
+	 * @param rai the img
+	 * @param compression the SCIFIO compression name, e.g. {@code "LZW"}, or
+	 *          null for the default of the writer
+	 * @param <T> the pixel value
+	 * @throws IOException on file write fail
+	 */
+	public static <T extends RealType<T>> void saveAsTiff(final Context context,
+		final String filename, final RandomAccessibleInterval<T> rai,
+		final String compression) throws IOException
+	{
+		final SCIFIOConfig config = new SCIFIOConfig().writerSetFailIfOverwriting(
+			false);
+		if (compression != null) {
+			config.writerSetCompression(compression);
+		}
 		try {
-			new ImgSaver(context).saveImg(filename, ImgView.wrap(rai, null),
-				new SCIFIOConfig().writerSetFailIfOverwriting(false));
+			new ImgSaver(context).saveImg(filename, ImgView.wrap(rai, null), config);
 		}
 		catch (ImgIOException | IncompatibleTypeException e) {
-			e.printStackTrace();
+			throw new IOException("Could not save " + filename, e);
+		}
+	}
+
+	/**
+	 * @param path the labeling file
+	 * @return whether the file ends with {@link #BIN_ENDING}
+	 */
+	public static boolean isBinaryLabeling(final Path path) {
+		return path.toString().endsWith(BIN_ENDING);
+	}
+
+	/**
+	 * @param file the labeling file
+	 * @return whether the file is a labeling bundle, ending with
+	 *         {@link #ZIP_ENDING}
+	 */
+	public static boolean isBundle(final String file) {
+		return file.endsWith(ZIP_ENDING);
+	}
+
+	/**
+	 * Opens a labeling file for reading, decompressing it if it starts with the
+	 * gzip magic number. Of a bundle, the labeling entry is read.
+	 *
+	 * @param path the labeling file
+	 * @return a reader of the (decompressed) UTF-8 text
+	 * @throws IOException on file read fail
+	 */
+	public static Reader newReader(final Path path) throws IOException {
+		if (isBundle(path.toString())) {
+			return new BufferedReader(new InputStreamReader(LabelingBundle
+				.newInputStream(LabelingBundle.entry(path, BUNDLE_LABELING_ENTRY)),
+				StandardCharsets.UTF_8));
+		}
+		final InputStream in = new BufferedInputStream(Files.newInputStream(path));
+		in.mark(2);
+		final boolean gzip = in.read() == 0x1f && in.read() == 0x8b;
+		in.reset();
+		return new BufferedReader(new InputStreamReader(gzip
+			? new GZIPInputStream(in) : in, StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * @param directory the directory to list
+	 * @return the sorted paths of the JSON, gzipped JSON and binary labeling
+	 *         files and the bundles in the directory
+	 * @throws IOException on directory read fail
+	 */
+	public static List<String> listLabelings(final Path directory)
+		throws IOException
+	{
+		try (final Stream<Path> files = Files.list(directory)) {
+			return files.map(Path::toString) //
+				.filter(file -> file.endsWith(LBL_ENDING) || file.endsWith(
+					GZIP_ENDING) || file.endsWith(BIN_ENDING) || file.endsWith(
+						ZIP_ENDING)) //
+				.sorted() //
+				.collect(Collectors.toList());
+		}
+	}
+
+	/**
+	 * @param indexImg the index image named in the labeling file
+	 * @param source the index of a source
+	 * @return the name of the index image of the source: the named index image
+	 *         for the first source, with the index of the source appended to
+	 *         its name for the others
+	 */
+	public static String getSourceImgName(final String indexImg,
+		final int source)
+	{
+		if (source == 0) {
+			return indexImg;
 		}
+		final int index = indexImg.lastIndexOf('.');
+		return index == -1 ? indexImg + "_" + source : indexImg.substring(0,
+			index) + "_" + source + indexImg.substring(index);
 	}
 
 	public static String getFilePathWithExtension(final String filename,
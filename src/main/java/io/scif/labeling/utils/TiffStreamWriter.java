@@ -0,0 +1,486 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.utils;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * Writes an index image to an uncompressed TIFF strip by strip, reading each
+ * strip straight from the source. Only one strip is buffered at a time, so a
+ * lazily computed or cell-backed image is never held in memory as a whole.
+ * Pixel data comes first and the image file directories follow it; files
+ * beyond 4 GB are written as BigTIFF. Images with three to five dimensions get
+ * an ImageJ description so that the planes are read back in the same order.
+ * An image with one dimension is written as a single row, and its description
+ * marks it as such, see {@link #isOneDimensional(String)}.
+ */
+public final class TiffStreamWriter {
+
+	/** The ImageJ description key that marks an image of one dimension. */
+	private static final String DIMENSIONS_KEY = "dimensions";
+
+	/** Upper bound of the size of one strip, unless a single row is larger. */
+	private static final int STRIP_BYTES = 1 << 20;
+
+	private static final short SHORT = 3;
+	private static final short LONG = 4;
+	private static final short ASCII = 2;
+	private static final short LONG8 = 16;
+
+	private final int bytesPerSample;
+	private final boolean signed;
+	private final long width;
+	private final long height;
+	private final long[] planeDims;
+	private final long numPlanes;
+	private final int rowsPerStrip;
+	private final int stripsPerPlane;
+	private final byte[] description;
+
+	private TiffStreamWriter(final RandomAccessibleInterval<?> img,
+		final IntegerType<?> type)
+	{
+		this.bytesPerSample = type.getBitsPerPixel() / 8;
+		this.signed = type.getMinValue() < 0;
+		this.width = img.dimension(0);
+		this.height = img.numDimensions() > 1 ? img.dimension(1) : 1;
+		this.planeDims = new long[Math.max(0, img.numDimensions() - 2)];
+		long numPlanes = 1;
+		for (int d = 2; d < img.numDimensions(); d++) {
+			this.planeDims[d - 2] = img.dimension(d);
+			numPlanes *= img.dimension(d);
+		}
+		this.numPlanes = numPlanes;
+		final long rowBytes = this.width * this.bytesPerSample;
+		this.rowsPerStrip = (int) Math.max(1, Math.min(this.height, STRIP_BYTES /
+			rowBytes));
+		this.stripsPerPlane = (int) ((this.height + this.rowsPerStrip - 1) /
+			this.rowsPerStrip);
+		this.description = imageJDescription(img.numDimensions(), this.planeDims,
+			this.numPlanes);
+	}
+
+	/**
+	 * @param img the index image
+	 * @return whether the image can be written: one to five dimensions, 8, 16
+	 *         or 32 bits per pixel, and strips of at most 2 GB
+	 */
+	public static boolean isSupported(
+		final RandomAccessibleInterval<? extends IntegerType<?>> img)
+	{
+		final int n = img.numDimensions();
+		final int bits = img.getType().getBitsPerPixel();
+		return n >= 1 && n <= 5 && (bits == 8 || bits == 16 || bits == 32) && img
+			.dimension(0) * (bits / 8) <= Integer.MAX_VALUE && (n == 1 || img
+				.dimension(1) <= 0xffffffffL);
+	}
+
+	/**
+	 * @param img the index image, see {@link #isSupported}
+	 * @return the size of the TIFF file the image is written to, in bytes
+	 */
+	public static long size(
+		final RandomAccessibleInterval<? extends IntegerType<?>> img)
+	{
+		final TiffStreamWriter writer = new TiffStreamWriter(img, img.getType());
+		final long end = writer.end(false);
+		return end > 0xffffffffL ? writer.end(true) : end;
+	}
+
+	/**
+	 * Writes the image to the given file, replacing it if it exists.
+	 *
+	 * @param path the file to write
+	 * @param img the index image, see {@link #isSupported}
+	 * @throws IOException if the file cannot be written
+	 */
+	public static void write(final Path path,
+		final RandomAccessibleInterval<? extends IntegerType<?>> img)
+		throws IOException
+	{
+		try (final FileChannel channel = FileChannel.open(path,
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			write(channel, img);
+		}
+	}
+
+	/**
+	 * Writes the image to the given channel, front to back, e.g. to a network
+	 * or zip stream. The channel is not closed.
+	 *
+	 * @param channel the channel to write to
+	 * @param img the index image, see {@link #isSupported}
+	 * @throws IOException if the channel cannot be written
+	 */
+	public static void write(final WritableByteChannel channel,
+		final RandomAccessibleInterval<? extends IntegerType<?>> img)
+		throws IOException
+	{
+		if (!isSupported(img)) {
+			throw new IllegalArgumentException("Cannot stream an image of " + img
+				.numDimensions() + " dimensions and " + img.getType()
+					.getBitsPerPixel() + " bits per pixel");
+		}
+		final TiffStreamWriter writer = new TiffStreamWriter(img, img.getType());
+		final boolean bigTiff = writer.end(false) > 0xffffffffL;
+		writer.writeHeader(channel, bigTiff);
+		writer.writePixels(channel, img, bigTiff);
+		writer.writeDirectories(channel, bigTiff);
+	}
+
+	/**
+	 * @param description the ImageJ description of a TIFF file, may be null
+	 * @return whether the description marks the single row of the file as an
+	 *         image of one dimension
+	 */
+	public static boolean isOneDimensional(final String description) {
+		return description != null && description.startsWith("ImageJ=") && Arrays
+			.asList(description.split("\n")).contains(DIMENSIONS_KEY + "=1");
+	}
+
+	private long headerBytes(final boolean bigTiff) {
+		return bigTiff ? 16 : 8;
+	}
+
+	private long planeBytes() {
+		return this.width * this.height * this.bytesPerSample;
+	}
+
+	private long pixelsEnd(final boolean bigTiff) {
+		return this.headerBytes(bigTiff) + this.numPlanes * this.planeBytes();
+	}
+
+	private int numEntries(final long plane) {
+		return plane == 0 && this.description != null ? 12 : 11;
+	}
+
+	/** The size of the directory of a plane, with its out-of-line values. */
+	private long directoryBytes(final long plane, final boolean bigTiff) {
+		final int entryBytes = bigTiff ? 20 : 12;
+		final int offsetBytes = bigTiff ? 8 : 4;
+		long bytes = (bigTiff ? 8 : 2) + offsetBytes + (long) this.numEntries(
+			plane) * entryBytes;
+		if (this.stripsPerPlane * offsetBytes > offsetBytes) {
+			bytes += this.stripsPerPlane * (long) offsetBytes;
+		}
+		if (this.stripsPerPlane * 4 > offsetBytes) {
+			bytes += this.stripsPerPlane * 4L;
+		}
+		if (plane == 0 && this.description != null &&
+			this.description.length > offsetBytes)
+		{
+			bytes += this.description.length;
+		}
+		return bytes + (bytes & 1);
+	}
+
+	private long end(final boolean bigTiff) {
+		long end = this.pixelsEnd(bigTiff);
+		end += end & 1;
+		for (long plane = 0; plane < this.numPlanes; plane++) {
+			end += this.directoryBytes(plane, bigTiff);
+		}
+		return end;
+	}
+
+	private void writeHeader(final WritableByteChannel channel,
+		final boolean bigTiff) throws IOException
+	{
+		final ByteBuffer header = buffer((int) this.headerBytes(bigTiff));
+		header.put((byte) 'I').put((byte) 'I');
+		if (bigTiff) {
+			header.putShort((short) 43).putShort((short) 8).putShort((short) 0);
+			header.putLong(this.firstDirectory(bigTiff));
+		}
+		else {
+			header.putShort((short) 42).putInt((int) this.firstDirectory(bigTiff));
+		}
+		header.flip();
+		writeFully(channel, header);
+	}
+
+	private long firstDirectory(final boolean bigTiff) {
+		final long end = this.pixelsEnd(bigTiff);
+		return end + (end & 1);
+	}
+
+	private void writePixels(final WritableByteChannel channel,
+		final RandomAccessibleInterval<? extends IntegerType<?>> img,
+		final boolean bigTiff) throws IOException
+	{
+		final int n = img.numDimensions();
+		final ByteBuffer strip = buffer((int) (this.rowsPerStrip * this.width *
+			this.bytesPerSample));
+		final long[] min = Intervals.minAsLongArray(img);
+		final long[] max = Intervals.maxAsLongArray(img);
+		final long[] position = new long[n];
+		for (long plane = 0; plane < this.numPlanes; plane++) {
+			long rest = plane;
+			for (int d = 2; d < n; d++) {
+				position[d] = img.min(d) + rest % img.dimension(d);
+				rest /= img.dimension(d);
+			}
+			for (int s = 0; s < this.stripsPerPlane; s++) {
+				final long[] stripMin = min.clone();
+				final long[] stripMax = max.clone();
+				for (int d = 2; d < n; d++) {
+					stripMin[d] = stripMax[d] = position[d];
+				}
+				if (n > 1) {
+					stripMin[1] = img.min(1) + (long) s * this.rowsPerStrip;
+					stripMax[1] = Math.min(max[1], stripMin[1] + this.rowsPerStrip -
+						1);
+				}
+				strip.clear();
+				final Cursor<? extends IntegerType<?>> cursor = Views.flatIterable(
+					Views.interval(img, stripMin, stripMax)).cursor();
+				while (cursor.hasNext()) {
+					final long value = cursor.next().getIntegerLong();
+					switch (this.bytesPerSample) {
+						case 1:
+							strip.put((byte) value);
+							break;
+						case 2:
+							strip.putShort((short) value);
+							break;
+						default:
+							strip.putInt((int) value);
+					}
+				}
+				strip.flip();
+				writeFully(channel, strip);
+			}
+		}
+		if ((this.pixelsEnd(bigTiff) & 1) != 0) {
+			writeFully(channel, buffer(1));
+		}
+	}
+
+	private void writeDirectories(final WritableByteChannel channel,
+		final boolean bigTiff) throws IOException
+	{
+		long offset = this.firstDirectory(bigTiff);
+		for (long plane = 0; plane < this.numPlanes; plane++) {
+			final long next = offset + this.directoryBytes(plane, bigTiff);
+			final ByteBuffer directory = buffer((int) this.directoryBytes(plane,
+				bigTiff));
+			this.putDirectory(directory, plane, offset, plane + 1 < this.numPlanes
+				? next : 0, bigTiff);
+			directory.rewind();
+			writeFully(channel, directory);
+			offset = next;
+		}
+	}
+
+	/**
+	 * Puts the directory of a plane, followed by the values that do not fit
+	 * into its entries.
+	 */
+	private void putDirectory(final ByteBuffer directory, final long plane,
+		final long offset, final long next, final boolean bigTiff)
+	{
+		final int entryBytes = bigTiff ? 20 : 12;
+		final int offsetBytes = bigTiff ? 8 : 4;
+		final int numEntries = this.numEntries(plane);
+		long extra = offset + (bigTiff ? 8 : 2) + offsetBytes +
+			(long) numEntries * entryBytes;
+		final ByteBuffer values = directory.duplicate().order(
+			ByteOrder.LITTLE_ENDIAN);
+		values.position((int) (extra - offset));
+		if (bigTiff) {
+			directory.putLong(numEntries);
+		}
+		else {
+			directory.putShort((short) numEntries);
+		}
+		putEntry(directory, 256, LONG, 1, this.width, bigTiff);
+		putEntry(directory, 257, LONG, 1, this.height, bigTiff);
+		putEntry(directory, 258, SHORT, 1, this.bytesPerSample * 8, bigTiff);
+		putEntry(directory, 259, SHORT, 1, 1, bigTiff);
+		putEntry(directory, 262, SHORT, 1, 1, bigTiff);
+		if (plane == 0 && this.description != null) {
+			if (this.description.length > offsetBytes) {
+				putEntry(directory, 270, ASCII, this.description.length, extra,
+					bigTiff);
+				values.put(this.description);
+				extra += this.description.length;
+			}
+			else {
+				putBytesEntry(directory, 270, this.description, bigTiff);
+			}
+		}
+		final long planeOffset = this.headerBytes(bigTiff) + plane * this
+			.planeBytes();
+		final long stripBytes = this.rowsPerStrip * this.width *
+			this.bytesPerSample;
+		if (this.stripsPerPlane == 1) {
+			putEntry(directory, 273, bigTiff ? LONG8 : LONG, 1, planeOffset,
+				bigTiff);
+		}
+		else {
+			putEntry(directory, 273, bigTiff ? LONG8 : LONG, this.stripsPerPlane,
+				extra, bigTiff);
+			for (int s = 0; s < this.stripsPerPlane; s++) {
+				putOffset(values, planeOffset + s * stripBytes, bigTiff);
+			}
+			extra += this.stripsPerPlane * (long) offsetBytes;
+		}
+		putEntry(directory, 277, SHORT, 1, 1, bigTiff);
+		putEntry(directory, 278, LONG, 1, this.rowsPerStrip, bigTiff);
+		final long lastStripBytes = this.planeBytes() - (this.stripsPerPlane - 1) *
+			stripBytes;
+		if (this.stripsPerPlane * 4 > offsetBytes) {
+			putEntry(directory, 279, LONG, this.stripsPerPlane, extra, bigTiff);
+			for (int s = 0; s < this.stripsPerPlane; s++) {
+				values.putInt((int) (s + 1 < this.stripsPerPlane ? stripBytes
+					: lastStripBytes));
+			}
+		}
+		else {
+			// NB: one strip, or two packed into the eight bytes of a BigTIFF entry
+			final ByteBuffer counts = buffer(offsetBytes);
+			for (int s = 0; s < this.stripsPerPlane; s++) {
+				counts.putInt((int) (s + 1 < this.stripsPerPlane ? stripBytes
+					: lastStripBytes));
+			}
+			putBytesEntry(directory, 279, LONG, this.stripsPerPlane, counts.array(),
+				bigTiff);
+		}
+		putEntry(directory, 284, SHORT, 1, 1, bigTiff);
+		putEntry(directory, 339, SHORT, 1, this.signed ? 2 : 1, bigTiff);
+		putOffset(directory, next, bigTiff);
+	}
+
+	private static void putEntry(final ByteBuffer directory, final int tag,
+		final short type, final long count, final long value,
+		final boolean bigTiff)
+	{
+		final ByteBuffer bytes = buffer(bigTiff ? 8 : 4);
+		if (type == SHORT && count == 1) {
+			bytes.putShort((short) value);
+		}
+		else if (bigTiff) {
+			bytes.putLong(value);
+		}
+		else {
+			bytes.putInt((int) value);
+		}
+		putBytesEntry(directory, tag, type, count, bytes.array(), bigTiff);
+	}
+
+	private static void putBytesEntry(final ByteBuffer directory, final int tag,
+		final byte[] value, final boolean bigTiff)
+	{
+		putBytesEntry(directory, tag, ASCII, value.length, value, bigTiff);
+	}
+
+	private static void putBytesEntry(final ByteBuffer directory, final int tag,
+		final short type, final long count, final byte[] value,
+		final boolean bigTiff)
+	{
+		directory.putShort((short) tag).putShort(type);
+		putOffset(directory, count, bigTiff);
+		final byte[] field = new byte[bigTiff ? 8 : 4];
+		System.arraycopy(value, 0, field, 0, Math.min(value.length, field.length));
+		directory.put(field);
+	}
+
+	private static void putOffset(final ByteBuffer buffer, final long value,
+		final boolean bigTiff)
+	{
+		if (bigTiff) {
+			buffer.putLong(value);
+		}
+		else {
+			buffer.putInt((int) value);
+		}
+	}
+
+	/**
+	 * Describes the planes as an ImageJ hyperstack of slices, of slices and
+	 * frames, or of channels, slices and frames, matching their order. A single
+	 * row is described as an image of one dimension.
+	 */
+	private static byte[] imageJDescription(final int numDimensions,
+		final long[] planeDims, final long numPlanes)
+	{
+		if (numDimensions == 2) {
+			return null;
+		}
+		final StringBuilder description = new StringBuilder("ImageJ=1.11a\n");
+		description.append("images=").append(numPlanes).append('\n');
+		if (numDimensions == 1) {
+			description.append(DIMENSIONS_KEY).append("=1\n");
+		}
+		final String[] names = planeDims.length == 3 ? new String[] { "channels",
+			"slices", "frames" } : new String[] { "slices", "frames" };
+		for (int d = 0; d < planeDims.length; d++) {
+			description.append(names[d]).append('=').append(planeDims[d]).append(
+				'\n');
+		}
+		if (planeDims.length > 1) {
+			description.append("hyperstack=true\n");
+		}
+		description.append('\0');
+		// NB: an even length keeps the strip arrays after it word aligned
+		if (description.length() % 2 != 0) {
+			description.append('\0');
+		}
+		return description.toString().getBytes(StandardCharsets.US_ASCII);
+	}
+
+	private static ByteBuffer buffer(final int size) {
+		return ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void writeFully(final WritableByteChannel channel,
+		final ByteBuffer buffer) throws IOException
+	{
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+	}
+}
@@ -0,0 +1,141 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.labeling.data;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import net.imglib2.roi.labeling.LabelingMapping;
+
+/**
+ * Assigns dense integer ids to labels, starting at 1, in order of first
+ * occurrence. Looking up the id of a label is a single hash lookup and looking
+ * up the label of an id is an array access, so interning all labels of a
+ * {@link LabelingMapping} is linear in the total number of label occurrences.
+ *
+ * @param <T> the label type
+ */
+public class LabelInterner<T> {
+
+	private final Map<T, Integer> ids;
+	private Object[] labels;
+	private int size = 0;
+
+	public LabelInterner() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize the number of distinct labels expected, used to size
+	 *          the internal tables
+	 */
+	public LabelInterner(final int expectedSize) {
+		this.ids = new HashMap<>(Math.max(16, (int) (expectedSize / 0.75f) + 1));
+		this.labels = new Object[Math.max(16, expectedSize)];
+	}
+
+	/**
+	 * Interns every label of the given mapping in one pass over its label sets.
+	 *
+	 * @param mapping the mapping to read the labels from
+	 * @param <T> the label type
+	 * @return the interner holding all labels of the mapping
+	 */
+	public static <T> LabelInterner<T> of(final LabelingMapping<T> mapping) {
+		final LabelInterner<T> interner = new LabelInterner<>();
+		for (int i = 0; i < mapping.numSets(); i++) {
+			for (final T label : mapping.labelsAtIndex(i)) {
+				interner.intern(label);
+			}
+		}
+		return interner;
+	}
+
+	/**
+	 * Returns the id of the given label, assigning the next free id if the label
+	 * has not been seen before.
+	 *
+	 * @param label the label
+	 * @return the id of the label, at least 1
+	 */
+	public int intern(final T label) {
+		final Integer id = this.ids.putIfAbsent(label, this.size + 1);
+		if (id != null) {
+			return id;
+		}
+		if (this.size == this.labels.length) {
+			this.labels = Arrays.copyOf(this.labels, this.size * 2);
+		}
+		this.labels[this.size] = label;
+		return ++this.size;
+	}
+
+	/**
+	 * @param label the label
+	 * @return the id of the label, or -1 if it was never interned
+	 */
+	public int idOf(final T label) {
+		final Integer id = this.ids.get(label);
+		return id == null ? -1 : id;
+	}
+
+	/**
+	 * @param id an id returned by {@link #intern(Object)}
+	 * @return the label with the given id
+	 */
+	@SuppressWarnings("unchecked")
+	public T labelOf(final int id) {
+		if (id < 1 || id > this.size) {
+			throw new IndexOutOfBoundsException("No label with id " + id);
+		}
+		return (T) this.labels[id - 1];
+	}
+
+	/**
+	 * @return the number of distinct labels
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return a map from id to label, iterating in id order
+	 */
+	public Map<Integer, T> toMap() {
+		final Map<Integer, T> map = new LinkedHashMap<>(
+			(int) (this.size / 0.75f) + 1);
+		for (int id = 1; id <= this.size; id++) {
+			map.put(id, this.labelOf(id));
+		}
+		return map;
+	}
+}
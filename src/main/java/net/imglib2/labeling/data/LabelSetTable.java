@@ -0,0 +1,332 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.labeling.data;
+
+import java.nio.IntBuffer;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.function.IntFunction;
+
+/**
+ * The label sets of a labeling as a compressed sparse row table: the label ids
+ * of set {@code i} are {@code labelIds[offsets[i]]} up to (excluding)
+ * {@code labelIds[offsets[i + 1]]}. Sets are addressed directly by their
+ * index, which is the pixel value of the index image. The table is backed by
+ * arrays or by buffers, e.g. views of a mapped file.
+ */
+public class LabelSetTable {
+
+	private static final LabelSetTable EMPTY = new LabelSetTable(new int[] { 0 },
+		new int[0]);
+
+	private final IntBuffer offsets;
+	private final IntBuffer labelIds;
+
+	/**
+	 * @param offsets {@code numSets + 1} ascending offsets into
+	 *          {@code labelIds}, starting at 0
+	 * @param labelIds the concatenated label ids of all sets
+	 */
+	public LabelSetTable(final int[] offsets, final int[] labelIds) {
+		this(IntBuffer.wrap(offsets), IntBuffer.wrap(labelIds));
+	}
+
+	/**
+	 * @param offsets {@code numSets + 1} ascending offsets into
+	 *          {@code labelIds}, starting at 0, from the position to the limit
+	 *          of the buffer
+	 * @param labelIds the concatenated label ids of all sets, from the position
+	 *          to the limit of the buffer
+	 */
+	public LabelSetTable(final IntBuffer offsets, final IntBuffer labelIds) {
+		this.offsets = offsets.slice();
+		this.labelIds = labelIds.slice();
+		final int last = this.offsets.limit() - 1;
+		if (last < 0 || this.offsets.get(0) != 0 || this.offsets.get(
+			last) != this.labelIds.limit())
+		{
+			throw new IllegalArgumentException(
+				"offsets must start at 0 and end at labelIds.length");
+		}
+	}
+
+	public static LabelSetTable empty() {
+		return EMPTY;
+	}
+
+	/**
+	 * @param labelSets the label ids of each set, indexed by set
+	 * @return a table holding the given sets
+	 */
+	public static LabelSetTable of(final int[]... labelSets) {
+		final Builder builder = new Builder(labelSets.length);
+		for (int i = 0; i < labelSets.length; i++) {
+			builder.startSet(i);
+			for (final int id : labelSets[i]) {
+				builder.add(id);
+			}
+		}
+		return builder.build(labelSets.length);
+	}
+
+	public int numSets() {
+		return this.offsets.limit() - 1;
+	}
+
+	/**
+	 * @param set the set index
+	 * @return the number of labels in the set
+	 */
+	public int size(final int set) {
+		return this.offsets.get(set + 1) - this.offsets.get(set);
+	}
+
+	/**
+	 * @param set the set index
+	 * @param k the position within the set
+	 * @return the {@code k}-th label id of the set
+	 */
+	public int labelId(final int set, final int k) {
+		return this.labelIds.get(this.offsets.get(set) + k);
+	}
+
+	/**
+	 * @param set the set index
+	 * @return a copy of the label ids of the set
+	 */
+	public int[] labelIds(final int set) {
+		final int[] ids = new int[this.size(set)];
+		((IntBuffer) this.labelIds.duplicate().position(this.offsets.get(set)))
+			.get(ids);
+		return ids;
+	}
+
+	/**
+	 * @return the total number of label ids of all sets
+	 */
+	public int numLabelIds() {
+		return this.labelIds.limit();
+	}
+
+	/**
+	 * @param k the position among the label ids of all sets
+	 * @return the {@code k}-th label id of all sets
+	 */
+	public int labelIdAt(final int k) {
+		return this.labelIds.get(k);
+	}
+
+	/**
+	 * @return the backing offsets array, not to be modified, or a copy of the
+	 *         offsets if the table is backed by a buffer
+	 */
+	public int[] offsets() {
+		return array(this.offsets);
+	}
+
+	/**
+	 * @return the backing label id array, not to be modified, or a copy of the
+	 *         label ids if the table is backed by a buffer
+	 */
+	public int[] labelIds() {
+		return array(this.labelIds);
+	}
+
+	private static int[] array(final IntBuffer buffer) {
+		if (buffer.hasArray() && buffer.arrayOffset() == 0 && buffer
+			.array().length == buffer.limit())
+		{
+			return buffer.array();
+		}
+		final int[] values = new int[buffer.limit()];
+		buffer.duplicate().get(values);
+		return values;
+	}
+
+	/**
+	 * Returns an unmodifiable view of a set, resolving each label id on access.
+	 * The view is meant to be consumed once, e.g. by
+	 * {@code ImgLabeling.fromImageAndLabelSets}, which copies it.
+	 *
+	 * @param set the set index
+	 * @param idToLabel resolves a label id to its label
+	 * @param <T> the label type
+	 * @return a view of the set
+	 */
+	public <T> Set<T> asSet(final int set, final IntFunction<T> idToLabel) {
+		final int from = this.offsets.get(set);
+		final int to = this.offsets.get(set + 1);
+		return new AbstractSet<T>() {
+
+			@Override
+			public Iterator<T> iterator() {
+				return new Iterator<T>() {
+
+					private int i = from;
+
+					@Override
+					public boolean hasNext() {
+						return this.i < to;
+					}
+
+					@Override
+					public T next() {
+						if (this.i >= to) {
+							throw new NoSuchElementException();
+						}
+						return idToLabel.apply(LabelSetTable.this.labelIds.get(
+							this.i++));
+					}
+				};
+			}
+
+			@Override
+			public int size() {
+				return to - from;
+			}
+		};
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (o == null || this.getClass() != o.getClass()) return false;
+		final LabelSetTable that = (LabelSetTable) o;
+		return this.offsets.equals(that.offsets) && this.labelIds.equals(
+			that.labelIds);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * this.offsets.hashCode() + this.labelIds.hashCode();
+	}
+
+	/**
+	 * Builds a {@link LabelSetTable} from sets that may arrive in any index
+	 * order, as they do in the JSON format. Sets that are never started are
+	 * empty.
+	 */
+	public static class Builder {
+
+		private int[] starts;
+		private int[] lengths;
+		private int[] labelIds = new int[16];
+		private int size = 0;
+		private int current = -1;
+		private int last = -1;
+		private boolean ordered = true;
+
+		public Builder() {
+			this(16);
+		}
+
+		/**
+		 * @param expectedSets the number of sets expected
+		 */
+		public Builder(final int expectedSets) {
+			this.starts = new int[Math.max(1, expectedSets)];
+			this.lengths = new int[Math.max(1, expectedSets)];
+			Arrays.fill(this.starts, -1);
+		}
+
+		/**
+		 * Starts the set with the given index; subsequent {@link #add(int)} calls
+		 * add to it.
+		 *
+		 * @param set the set index
+		 */
+		public void startSet(final int set) {
+			if (set < 0) {
+				throw new IllegalArgumentException("Negative set index " + set);
+			}
+			if (set >= this.starts.length) {
+				final int length = Math.max(set + 1, this.starts.length * 2);
+				final int oldLength = this.starts.length;
+				this.starts = Arrays.copyOf(this.starts, length);
+				this.lengths = Arrays.copyOf(this.lengths, length);
+				Arrays.fill(this.starts, oldLength, length, -1);
+			}
+			if (this.starts[set] != -1) {
+				throw new IllegalArgumentException("Duplicate label set " + set);
+			}
+			this.ordered &= set == this.last + 1;
+			this.last = set;
+			this.current = set;
+			this.starts[set] = this.size;
+		}
+
+		/**
+		 * @param labelId a label id to add to the current set
+		 */
+		public void add(final int labelId) {
+			if (this.size == this.labelIds.length) {
+				this.labelIds = Arrays.copyOf(this.labelIds, this.size * 2);
+			}
+			this.labelIds[this.size++] = labelId;
+			this.lengths[this.current]++;
+		}
+
+		/**
+		 * @param numSets the minimum number of sets of the table
+		 * @return the table
+		 */
+		public LabelSetTable build(final int numSets) {
+			int n = Math.max(numSets, 0);
+			for (int i = this.starts.length - 1; i >= n; i--) {
+				if (this.starts[i] != -1) {
+					n = i + 1;
+					break;
+				}
+			}
+			final int[] offsets = new int[n + 1];
+			if (this.ordered) {
+				for (int i = 0; i < n; i++) {
+					offsets[i + 1] = offsets[i] + (i < this.lengths.length
+						? this.lengths[i] : 0);
+				}
+				return new LabelSetTable(offsets, Arrays.copyOf(this.labelIds,
+					this.size));
+			}
+			final int[] ids = new int[this.size];
+			for (int i = 0; i < n; i++) {
+				final int length = i < this.lengths.length ? this.lengths[i] : 0;
+				if (length > 0) {
+					System.arraycopy(this.labelIds, this.starts[i], ids, offsets[i],
+						length);
+				}
+				offsets[i + 1] = offsets[i] + length;
+			}
+			return new LabelSetTable(offsets, ids);
+		}
+	}
+}
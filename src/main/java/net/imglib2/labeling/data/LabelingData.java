@@ -30,12 +30,13 @@
 package net.imglib2.labeling.data;
 
 import com.google.gson.Gson;
+import com.google.gson.annotations.JsonAdapter;
 
 import java.util.Collections;
 import java.util.Map;
 import java.util.Objects;
-import java.util.Set;
 
+@JsonAdapter(LabelingDataCodec.Factory.class)
 public class LabelingData<T, S> {
 
 	private int version = 3;
@@ -43,8 +44,9 @@ public class LabelingData<T, S> {
 	private int numSources = 0;
 	private String indexImg;
 	private Map<Integer, T> labelMapping = Collections.emptyMap();
-	private Map<String, Set<Integer>> labelSets = Collections.emptyMap();
+	private LabelSetTable labelSets = LabelSetTable.empty();
 	private S metadata;
+	private SetStatistics setStatistics;
 
 	public int getVersion() {
 		return this.version;
@@ -86,11 +88,14 @@ public class LabelingData<T, S> {
 		this.labelMapping = labelMapping;
 	}
 
-	public Map<String, Set<Integer>> getLabelSets() {
+	/**
+	 * @return the label ids of each label set, indexed by set
+	 */
+	public LabelSetTable getLabelSets() {
 		return this.labelSets;
 	}
 
-	public void setLabelSets(final Map<String, Set<Integer>> labelSets) {
+	public void setLabelSets(final LabelSetTable labelSets) {
 		this.labelSets = labelSets;
 	}
 
@@ -102,6 +107,18 @@ public class LabelingData<T, S> {
 		this.metadata = metadata;
 	}
 
+	/**
+	 * @return the voxel count, bounding box and centroid of each label set, or
+	 *         null if they were not computed
+	 */
+	public SetStatistics getSetStatistics() {
+		return this.setStatistics;
+	}
+
+	public void setSetStatistics(final SetStatistics setStatistics) {
+		this.setStatistics = setStatistics;
+	}
+
 	@Override
 	public boolean equals(final Object o) {
 		if (this == o) return true;
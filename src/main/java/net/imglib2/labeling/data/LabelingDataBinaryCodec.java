@@ -0,0 +1,412 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.labeling.data;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParseException;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.TypeAdapter;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import net.imglib2.roi.labeling.LabelingMapping;
+
+/**
+ * Binary alternative to the JSON labeling file, read through a
+ * {@link MappedByteBuffer}. Numbers are little-endian ints unless noted;
+ * strings are a byte length followed by UTF-8 bytes.
+ *
+ * <pre>
+ * magic        "LBLB"
+ * version      format version, currently 1
+ * numSets
+ * numSources
+ * indexImg     string
+ * offsets      length, then numSets + 1 offsets into labelIds
+ * labelIds     length, then the label ids of all sets
+ * labelKind    0: Integer labels, no dictionary
+ *              1: String labels, 2: JSON-encoded labels
+ * dictionary   count, then (id, string) pairs (labelKind 1 and 2 only)
+ * metadata     JSON string, length -1 if absent
+ * statistics   optional: numDimensions, -1 if absent, then counts, min
+ *              and max as a length followed by longs, and centroids as a
+ *              length followed by doubles
+ * </pre>
+ */
+public class LabelingDataBinaryCodec {
+
+	public static final byte[] MAGIC = { 'L', 'B', 'L', 'B' };
+	public static final int FORMAT_VERSION = 1;
+
+	private static final int INTEGER_LABELS = 0;
+	private static final int STRING_LABELS = 1;
+	private static final int JSON_LABELS = 2;
+
+	private LabelingDataBinaryCodec() {
+		// NB: static utility class
+	}
+
+	/**
+	 * @param buffer the first bytes of a file
+	 * @return whether the bytes start with the binary labeling magic number
+	 */
+	public static boolean hasMagic(final ByteBuffer buffer) {
+		if (buffer.remaining() < MAGIC.length) {
+			return false;
+		}
+		for (int i = 0; i < MAGIC.length; i++) {
+			if (buffer.get(buffer.position() + i) != MAGIC[i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Reads a binary labeling file. The label sets are read through the mapped
+	 * file, which stays mapped as long as they are referenced; only labels of
+	 * labelKind 2 and the metadata are parsed as JSON.
+	 *
+	 * @param path the file to read
+	 * @param labelAdapter reads the JSON-encoded labels
+	 * @param labelType the label class
+	 * @param <T> the label type
+	 * @return the labeling data, with the metadata as a JSON tree
+	 * @throws IOException on file read fail, or if the stored labels are not of
+	 *           the label type
+	 */
+	public static <T> LabelingData<T, JsonElement> read(final Path path,
+		final TypeAdapter<T> labelAdapter, final Class<T> labelType)
+		throws IOException
+	{
+		final MappedByteBuffer buffer;
+		try (final FileChannel channel = FileChannel.open(path,
+			StandardOpenOption.READ))
+		{
+			buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+		}
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+		if (!hasMagic(buffer)) {
+			throw new IOException("Not a binary labeling file: " + path);
+		}
+		buffer.position(MAGIC.length);
+		final int version = buffer.getInt();
+		if (version > FORMAT_VERSION) {
+			throw new IOException("Unsupported binary labeling version " + version +
+				": " + path);
+		}
+		final LabelingData<T, JsonElement> labelingData = new LabelingData<>();
+		labelingData.setNumSets(buffer.getInt());
+		labelingData.setNumSources(buffer.getInt());
+		labelingData.setIndexImg(getString(buffer));
+		final IntBuffer offsets = getIntBuffer(buffer);
+		final IntBuffer labelIds = getIntBuffer(buffer);
+		labelingData.setLabelSets(new LabelSetTable(offsets, labelIds));
+		final int labelKind = buffer.getInt();
+		if (labelKind != INTEGER_LABELS) {
+			final int count = buffer.getInt();
+			final Map<Integer, T> labelMapping = new HashMap<>((int) (count /
+				0.75f) + 1);
+			for (int i = 0; i < count; i++) {
+				final int id = buffer.getInt();
+				final String label = getString(buffer);
+				labelMapping.put(id, labelKind == STRING_LABELS ? stringLabel(label,
+					labelAdapter, labelType) : labelAdapter.fromJson(label));
+			}
+			labelingData.setLabelMapping(labelMapping);
+		}
+		final String metadata = getString(buffer);
+		if (metadata != null) {
+			labelingData.setMetadata(JsonParser.parseString(metadata));
+		}
+		// NB: files written before statistics were added end here
+		if (buffer.hasRemaining()) {
+			final int numDimensions = buffer.getInt();
+			if (numDimensions >= 0) {
+				labelingData.setSetStatistics(new SetStatistics(numDimensions,
+					getLongs(buffer), getLongs(buffer), getLongs(buffer), getDoubles(
+						buffer)));
+			}
+		}
+		return labelingData;
+	}
+
+	/**
+	 * Writes a binary labeling file whose label sets are taken directly from
+	 * the given mapping.
+	 *
+	 * @param path the file to write
+	 * @param gson the Gson instance used for metadata
+	 * @param labelAdapters the adapter of each non-String label class
+	 * @param header provides numSets, numSources, indexImg and metadata
+	 * @param mapping the mapping holding the label sets
+	 * @param <T> the label type
+	 */
+	public static <T> void write(final Path path, final Gson gson,
+		final Function<Class<?>, TypeAdapter<?>> labelAdapters,
+		final LabelingData<T, ?> header, final LabelingMapping<T> mapping)
+		throws IOException
+	{
+		final T firstLabel = LabelingDataCodec.firstLabel(mapping);
+		final boolean integerLabels = firstLabel instanceof Integer;
+		final LabelInterner<T> interner = new LabelInterner<>();
+		final LabelSetTable.Builder builder = new LabelSetTable.Builder(mapping
+			.numSets());
+		for (int i = 0; i < mapping.numSets(); i++) {
+			builder.startSet(i);
+			for (final T label : mapping.labelsAtIndex(i)) {
+				builder.add(integerLabels ? (Integer) label : interner.intern(label));
+			}
+		}
+		write(path, gson, labelAdapters, header, builder.build(mapping.numSets()),
+			interner);
+	}
+
+	/**
+	 * Writes a binary labeling file whose label sets hold the ids the given
+	 * function assigns to the labels, without a dictionary.
+	 *
+	 * @param path the file to write
+	 * @param gson the Gson instance used for metadata
+	 * @param header provides numSets, numSources, indexImg and metadata
+	 * @param mapping the mapping holding the label sets
+	 * @param labelToId the id of each label, within the int range
+	 * @param <T> the label type
+	 */
+	public static <T> void write(final Path path, final Gson gson,
+		final LabelingData<T, ?> header, final LabelingMapping<T> mapping,
+		final ToLongFunction<? super T> labelToId) throws IOException
+	{
+		final LabelSetTable.Builder builder = new LabelSetTable.Builder(mapping
+			.numSets());
+		for (int i = 0; i < mapping.numSets(); i++) {
+			builder.startSet(i);
+			for (final T label : mapping.labelsAtIndex(i)) {
+				builder.add(LabelingDataCodec.intId(labelToId.applyAsLong(label)));
+			}
+		}
+		write(path, gson, null, header, builder.build(mapping.numSets()),
+			new LabelInterner<T>());
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> void write(final Path path, final Gson gson,
+		final Function<Class<?>, TypeAdapter<?>> labelAdapters,
+		final LabelingData<T, ?> header, final LabelSetTable table,
+		final LabelInterner<T> interner) throws IOException
+	{
+
+		int labelKind = INTEGER_LABELS;
+		final byte[][] labels = new byte[interner.size()][];
+		if (interner.size() > 0) {
+			labelKind = STRING_LABELS;
+			for (int id = 1; id <= interner.size(); id++) {
+				if (!(interner.labelOf(id) instanceof String)) {
+					labelKind = JSON_LABELS;
+					break;
+				}
+			}
+			for (int id = 1; id <= interner.size(); id++) {
+				final T label = interner.labelOf(id);
+				labels[id - 1] = (labelKind == STRING_LABELS ? (String) label
+					: ((TypeAdapter<T>) labelAdapters.apply(label.getClass())).toJson(
+						label)).getBytes(StandardCharsets.UTF_8);
+			}
+		}
+		final byte[] indexImg = bytes(header.getIndexImg());
+		final byte[] metadata = header.getMetadata() == null ? null : gson.toJson(
+			header.getMetadata()).getBytes(StandardCharsets.UTF_8);
+
+		long size = MAGIC.length + 4 * 4L + stringSize(indexImg) + 4 + 4L * table
+			.offsets().length + 4 + 4L * table.labelIds().length + 4 + 4 +
+			stringSize(metadata) + 4;
+		final SetStatistics statistics = header.getSetStatistics();
+		if (statistics != null) {
+			size += 4 * 4L + 8L * (statistics.counts().length + statistics
+				.min().length + statistics.max().length + statistics
+					.centroids().length);
+		}
+		for (final byte[] label : labels) {
+			size += 4 + stringSize(label);
+		}
+		if (size > Integer.MAX_VALUE) {
+			throw new IOException("Labeling too large for the binary format");
+		}
+		final ByteBuffer buffer = ByteBuffer.allocate((int) size).order(
+			ByteOrder.LITTLE_ENDIAN);
+		buffer.put(MAGIC);
+		buffer.putInt(FORMAT_VERSION);
+		buffer.putInt(header.getNumSets());
+		buffer.putInt(header.getNumSources());
+		putString(buffer, indexImg);
+		putInts(buffer, table.offsets());
+		putInts(buffer, table.labelIds());
+		buffer.putInt(labelKind);
+		if (labelKind != INTEGER_LABELS) {
+			buffer.putInt(labels.length);
+			for (int id = 1; id <= labels.length; id++) {
+				buffer.putInt(id);
+				putString(buffer, labels[id - 1]);
+			}
+		}
+		putString(buffer, metadata);
+		if (statistics == null) {
+			buffer.putInt(-1);
+		}
+		else {
+			buffer.putInt(statistics.numDimensions());
+			putLongs(buffer, statistics.counts());
+			putLongs(buffer, statistics.min());
+			putLongs(buffer, statistics.max());
+			putDoubles(buffer, statistics.centroids());
+		}
+		buffer.flip();
+		try (final FileChannel channel = FileChannel.open(path,
+			StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+			StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+		}
+	}
+
+	private static byte[] bytes(final String string) {
+		return string == null ? null : string.getBytes(StandardCharsets.UTF_8);
+	}
+
+	private static long stringSize(final byte[] bytes) {
+		return 4 + (bytes == null ? 0 : bytes.length);
+	}
+
+	private static void putString(final ByteBuffer buffer, final byte[] bytes) {
+		if (bytes == null) {
+			buffer.putInt(-1);
+			return;
+		}
+		buffer.putInt(bytes.length);
+		buffer.put(bytes);
+	}
+
+	private static String getString(final ByteBuffer buffer) {
+		final int length = buffer.getInt();
+		if (length < 0) {
+			return null;
+		}
+		final byte[] bytes = new byte[length];
+		buffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Returns a String label as the label type, or decodes it as a JSON string
+	 * if the label type is no String, e.g. a {@link JsonElement}.
+	 */
+	private static <T> T stringLabel(final String label,
+		final TypeAdapter<T> labelAdapter, final Class<T> labelType)
+		throws IOException
+	{
+		if (labelType.isAssignableFrom(String.class)) {
+			return labelType.cast(label);
+		}
+		try {
+			return labelAdapter.fromJsonTree(new JsonPrimitive(label));
+		}
+		catch (final JsonParseException | IllegalStateException e) {
+			throw new IOException("The String label " + label +
+				" is not a " + labelType.getName(), e);
+		}
+	}
+
+	/**
+	 * Returns a view of the ints in the buffer, without copying them, and moves
+	 * the buffer past them.
+	 */
+	private static IntBuffer getIntBuffer(final ByteBuffer buffer)
+		throws IOException
+	{
+		final int length = buffer.getInt();
+		if (length < 0 || 4L * length > buffer.remaining()) {
+			throw new IOException("Truncated binary labeling file");
+		}
+		final IntBuffer values = ((ByteBuffer) buffer.slice().order(buffer
+			.order()).limit(4 * length)).asIntBuffer();
+		buffer.position(buffer.position() + 4 * length);
+		return values;
+	}
+
+	private static void putInts(final ByteBuffer buffer, final int[] values) {
+		buffer.putInt(values.length);
+		buffer.asIntBuffer().put(values);
+		buffer.position(buffer.position() + 4 * values.length);
+	}
+
+	private static void putLongs(final ByteBuffer buffer, final long[] values) {
+		buffer.putInt(values.length);
+		buffer.asLongBuffer().put(values);
+		buffer.position(buffer.position() + 8 * values.length);
+	}
+
+	private static long[] getLongs(final ByteBuffer buffer) {
+		final long[] values = new long[buffer.getInt()];
+		buffer.asLongBuffer().get(values);
+		buffer.position(buffer.position() + 8 * values.length);
+		return values;
+	}
+
+	private static void putDoubles(final ByteBuffer buffer,
+		final double[] values)
+	{
+		buffer.putInt(values.length);
+		buffer.asDoubleBuffer().put(values);
+		buffer.position(buffer.position() + 8 * values.length);
+	}
+
+	private static double[] getDoubles(final ByteBuffer buffer) {
+		final double[] values = new double[buffer.getInt()];
+		buffer.asDoubleBuffer().get(values);
+		buffer.position(buffer.position() + 8 * values.length);
+		return values;
+	}
+}
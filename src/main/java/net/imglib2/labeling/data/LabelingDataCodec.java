@@ -0,0 +1,465 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.labeling.data;
+
+import com.google.gson.Gson;
+import com.google.gson.TypeAdapter;
+import com.google.gson.TypeAdapterFactory;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonToken;
+import com.google.gson.stream.JsonWriter;
+
+import java.io.IOException;
+import java.lang.reflect.ParameterizedType;
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import net.imglib2.roi.labeling.LabelingMapping;
+
+/**
+ * Streaming JSON codec for {@link LabelingData}, reading and writing the
+ * version 2/3 labeling file format with a {@link JsonReader} and
+ * {@link JsonWriter}. Label sets are read into a {@link LabelSetTable} and
+ * written straight from a {@link LabelingMapping}, without building
+ * intermediate maps of boxed ids.
+ *
+ * @param <T> the label type
+ * @param <S> the metadata type
+ */
+public class LabelingDataCodec<T, S> extends TypeAdapter<LabelingData<T, S>> {
+
+	private final TypeAdapter<T> labelAdapter;
+	private final TypeAdapter<S> metadataAdapter;
+
+	@SuppressWarnings("unchecked")
+	public LabelingDataCodec(final Gson gson, final Type labelType,
+		final Type metadataType)
+	{
+		this((TypeAdapter<T>) gson.getAdapter(TypeToken.get(labelType)),
+			(TypeAdapter<S>) gson.getAdapter(TypeToken.get(metadataType)));
+	}
+
+	/**
+	 * @param labelAdapter reads and writes the labels of the label mapping
+	 * @param metadataAdapter reads and writes the metadata
+	 */
+	public LabelingDataCodec(final TypeAdapter<T> labelAdapter,
+		final TypeAdapter<S> metadataAdapter)
+	{
+		this.labelAdapter = labelAdapter;
+		this.metadataAdapter = metadataAdapter;
+	}
+
+	/**
+	 * Creates the codec for a parameterized {@link LabelingData} type, falling
+	 * back to {@link Object} for raw or wildcard type arguments.
+	 */
+	public static class Factory implements TypeAdapterFactory {
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public <X> TypeAdapter<X> create(final Gson gson,
+			final TypeToken<X> typeToken)
+		{
+			if (!LabelingData.class.isAssignableFrom(typeToken.getRawType())) {
+				return null;
+			}
+			Type labelType = Object.class;
+			Type metadataType = Object.class;
+			if (typeToken.getType() instanceof ParameterizedType) {
+				final Type[] arguments = ((ParameterizedType) typeToken.getType())
+					.getActualTypeArguments();
+				labelType = concrete(arguments[0]);
+				metadataType = concrete(arguments[1]);
+			}
+			return (TypeAdapter<X>) new LabelingDataCodec<>(gson, labelType,
+				metadataType);
+		}
+
+		private static Type concrete(final Type type) {
+			return type instanceof Class || type instanceof ParameterizedType ? type
+				: Object.class;
+		}
+	}
+
+	@Override
+	public LabelingData<T, S> read(final JsonReader in) throws IOException {
+		final LabelingData<T, S> labelingData = new LabelingData<>();
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "version":
+					labelingData.setVersion(in.nextInt());
+					break;
+				case "numSets":
+					labelingData.setNumSets(in.nextInt());
+					break;
+				case "numSources":
+					labelingData.setNumSources(in.nextInt());
+					break;
+				case "indexImg":
+					labelingData.setIndexImg(this.readString(in));
+					break;
+				case "labelMapping":
+					labelingData.setLabelMapping(this.readLabelMapping(in));
+					break;
+				case "labelSets":
+					labelingData.setLabelSets(this.readLabelSets(in, labelingData
+						.getNumSets()));
+					break;
+				case "setStatistics":
+					labelingData.setSetStatistics(readSetStatistics(in));
+					break;
+				case "metadata":
+					labelingData.setMetadata(this.metadataAdapter.read(in));
+					break;
+				default:
+					in.skipValue();
+			}
+		}
+		in.endObject();
+		return labelingData;
+	}
+
+	@Override
+	public void write(final JsonWriter out, final LabelingData<T, S> labelingData)
+		throws IOException
+	{
+		writeHeader(out, labelingData);
+		out.name("labelMapping").beginObject();
+		for (final Map.Entry<Integer, T> entry : labelingData.getLabelMapping()
+			.entrySet())
+		{
+			out.name(entry.getKey().toString());
+			this.labelAdapter.write(out, entry.getValue());
+		}
+		out.endObject();
+		out.name("labelSets").beginObject();
+		final LabelSetTable labelSets = labelingData.getLabelSets();
+		for (int i = 0; i < labelSets.numSets(); i++) {
+			out.name(Integer.toString(i)).beginArray();
+			for (int k = 0; k < labelSets.size(i); k++) {
+				out.value(labelSets.labelId(i, k));
+			}
+			out.endArray();
+		}
+		out.endObject();
+		writeSetStatistics(out, labelingData.getSetStatistics());
+		if (labelingData.getMetadata() != null) {
+			out.name("metadata");
+			this.metadataAdapter.write(out, labelingData.getMetadata());
+		}
+		out.endObject();
+	}
+
+	/**
+	 * Writes a labeling file whose label sets are taken directly from the given
+	 * mapping. Integer labels are written as they are; all other labels are
+	 * interned into a {@code labelMapping} dictionary and referenced by id.
+	 *
+	 * @param gson the Gson instance used for metadata
+	 * @param labelAdapters the adapter of each label class
+	 * @param out the writer to write to
+	 * @param header provides version, numSets, numSources, indexImg and metadata
+	 * @param mapping the mapping holding the label sets
+	 * @param <T> the label type
+	 */
+	public static <T> void write(final Gson gson,
+		final Function<Class<?>, TypeAdapter<?>> labelAdapters,
+		final JsonWriter out, final LabelingData<T, ?> header,
+		final LabelingMapping<T> mapping) throws IOException
+	{
+		final boolean integerLabels = firstLabel(mapping) instanceof Integer;
+		final LabelInterner<T> interner = integerLabels ? null : LabelInterner.of(
+			mapping);
+		write(gson, labelAdapters, out, header, mapping, interner, integerLabels
+			? label -> ((Integer) label).longValue() : interner::idOf);
+	}
+
+	/**
+	 * Writes a labeling file whose label sets hold the ids the given function
+	 * assigns to the labels, with an empty {@code labelMapping} dictionary.
+	 *
+	 * @param gson the Gson instance used for metadata
+	 * @param out the writer to write to
+	 * @param header provides version, numSets, numSources, indexImg and metadata
+	 * @param mapping the mapping holding the label sets
+	 * @param labelToId the id of each label, within the int range
+	 * @param <T> the label type
+	 */
+	public static <T> void write(final Gson gson, final JsonWriter out,
+		final LabelingData<T, ?> header, final LabelingMapping<T> mapping,
+		final ToLongFunction<? super T> labelToId) throws IOException
+	{
+		write(gson, null, out, header, mapping, null, label -> intId(labelToId
+			.applyAsLong(label)));
+	}
+
+	private static <T> void write(final Gson gson,
+		final Function<Class<?>, TypeAdapter<?>> labelAdapters,
+		final JsonWriter out, final LabelingData<T, ?> header,
+		final LabelingMapping<T> mapping, final LabelInterner<T> interner,
+		final ToLongFunction<? super T> labelToId) throws IOException
+	{
+		writeHeader(out, header);
+		out.name("labelMapping").beginObject();
+		if (interner != null) {
+			final LabelWriter labelWriter = new LabelWriter(labelAdapters);
+			for (int id = 1; id <= interner.size(); id++) {
+				out.name(Integer.toString(id));
+				labelWriter.write(out, interner.labelOf(id));
+			}
+		}
+		out.endObject();
+		out.name("labelSets").beginObject();
+		for (int i = 0; i < mapping.numSets(); i++) {
+			out.name(Integer.toString(i)).beginArray();
+			for (final T label : mapping.labelsAtIndex(i)) {
+				out.value(labelToId.applyAsLong(label));
+			}
+			out.endArray();
+		}
+		out.endObject();
+		writeSetStatistics(out, header.getSetStatistics());
+		final Object metadata = header.getMetadata();
+		if (metadata != null) {
+			out.name("metadata");
+			gson.toJson(metadata, metadata.getClass(), out);
+		}
+		out.endObject();
+	}
+
+	private static void writeHeader(final JsonWriter out,
+		final LabelingData<?, ?> labelingData) throws IOException
+	{
+		out.beginObject();
+		out.name("version").value(labelingData.getVersion());
+		out.name("numSets").value(labelingData.getNumSets());
+		out.name("numSources").value(labelingData.getNumSources());
+		if (labelingData.getIndexImg() != null) {
+			out.name("indexImg").value(labelingData.getIndexImg());
+		}
+	}
+
+	/**
+	 * Writes the set statistics column by column, as flat arrays with
+	 * {@code numDimensions} values per set for the bounds and centroids.
+	 */
+	private static void writeSetStatistics(final JsonWriter out,
+		final SetStatistics statistics) throws IOException
+	{
+		if (statistics == null) {
+			return;
+		}
+		out.name("setStatistics").beginObject();
+		out.name("numDimensions").value(statistics.numDimensions());
+		out.name("counts").beginArray();
+		for (final long value : statistics.counts()) {
+			out.value(value);
+		}
+		out.endArray();
+		out.name("min").beginArray();
+		for (final long value : statistics.min()) {
+			out.value(value);
+		}
+		out.endArray();
+		out.name("max").beginArray();
+		for (final long value : statistics.max()) {
+			out.value(value);
+		}
+		out.endArray();
+		out.name("centroids").beginArray();
+		for (final double value : statistics.centroids()) {
+			out.value(value);
+		}
+		out.endArray();
+		out.endObject();
+	}
+
+	private static SetStatistics readSetStatistics(final JsonReader in)
+		throws IOException
+	{
+		int numDimensions = 0;
+		long[] counts = new long[0];
+		long[] min = new long[0];
+		long[] max = new long[0];
+		double[] centroids = new double[0];
+		in.beginObject();
+		while (in.hasNext()) {
+			switch (in.nextName()) {
+				case "numDimensions":
+					numDimensions = in.nextInt();
+					break;
+				case "counts":
+					counts = readLongs(in);
+					break;
+				case "min":
+					min = readLongs(in);
+					break;
+				case "max":
+					max = readLongs(in);
+					break;
+				case "centroids":
+					centroids = readDoubles(in);
+					break;
+				default:
+					in.skipValue();
+			}
+		}
+		in.endObject();
+		return new SetStatistics(numDimensions, counts, min, max, centroids);
+	}
+
+	private static long[] readLongs(final JsonReader in) throws IOException {
+		long[] values = new long[16];
+		int size = 0;
+		in.beginArray();
+		while (in.hasNext()) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = in.nextLong();
+		}
+		in.endArray();
+		return Arrays.copyOf(values, size);
+	}
+
+	private static double[] readDoubles(final JsonReader in) throws IOException {
+		double[] values = new double[16];
+		int size = 0;
+		in.beginArray();
+		while (in.hasNext()) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, 2 * size);
+			}
+			values[size++] = in.nextDouble();
+		}
+		in.endArray();
+		return Arrays.copyOf(values, size);
+	}
+
+	/**
+	 * Label ids are read back as ints, so ids given as longs must fit into one.
+	 */
+	static int intId(final long id) {
+		if (id < Integer.MIN_VALUE || id > Integer.MAX_VALUE) {
+			throw new IllegalArgumentException("Label id " + id +
+				" is out of the int range");
+		}
+		return (int) id;
+	}
+
+	static <T> T firstLabel(final LabelingMapping<T> mapping) {
+		for (int i = 0; i < mapping.numSets(); i++) {
+			final Set<T> labels = mapping.labelsAtIndex(i);
+			if (!labels.isEmpty()) {
+				return labels.iterator().next();
+			}
+		}
+		return null;
+	}
+
+	private String readString(final JsonReader in) throws IOException {
+		if (in.peek() == JsonToken.NULL) {
+			in.nextNull();
+			return null;
+		}
+		return in.nextString();
+	}
+
+	private Map<Integer, T> readLabelMapping(final JsonReader in)
+		throws IOException
+	{
+		final Map<Integer, T> labelMapping = new LinkedHashMap<>();
+		in.beginObject();
+		while (in.hasNext()) {
+			final int id = Integer.parseInt(in.nextName());
+			labelMapping.put(id, this.labelAdapter.read(in));
+		}
+		in.endObject();
+		return labelMapping;
+	}
+
+	private LabelSetTable readLabelSets(final JsonReader in, final int numSets)
+		throws IOException
+	{
+		final LabelSetTable.Builder builder = new LabelSetTable.Builder(numSets);
+		in.beginObject();
+		while (in.hasNext()) {
+			builder.startSet(Integer.parseInt(in.nextName()));
+			in.beginArray();
+			while (in.hasNext()) {
+				builder.add(in.nextInt());
+			}
+			in.endArray();
+		}
+		in.endObject();
+		return builder.build(numSets);
+	}
+
+	/**
+	 * Writes labels with the adapter of their runtime class, remembering the
+	 * adapter as long as consecutive labels share a class.
+	 */
+	private static class LabelWriter {
+
+		private final Function<Class<?>, TypeAdapter<?>> labelAdapters;
+		private Class<?> labelClass;
+		private TypeAdapter<Object> adapter;
+
+		private LabelWriter(
+			final Function<Class<?>, TypeAdapter<?>> labelAdapters)
+		{
+			this.labelAdapters = labelAdapters;
+		}
+
+		@SuppressWarnings("unchecked")
+		private void write(final JsonWriter out, final Object label)
+			throws IOException
+		{
+			if (label == null) {
+				out.nullValue();
+				return;
+			}
+			if (label.getClass() != this.labelClass) {
+				this.labelClass = label.getClass();
+				this.adapter = (TypeAdapter<Object>) this.labelAdapters.apply(
+					this.labelClass);
+			}
+			this.adapter.write(out, label);
+		}
+	}
+}
@@ -0,0 +1,306 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package net.imglib2.labeling.data;
+
+import java.util.Arrays;
+import java.util.function.BinaryOperator;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import net.imglib2.Cursor;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+
+/**
+ * The voxel count, bounding box and centroid of each label set of an index
+ * image, stored column by column and addressed by set index. The statistics of
+ * a label combine those of the sets containing it.
+ */
+public class SetStatistics {
+
+	/** Upper bound of the memory used by the per-thread accumulators. */
+	private static final long MAX_ACCUMULATOR_BYTES = 256L << 20;
+
+	private final int numDimensions;
+	private final long[] counts;
+	private final long[] min;
+	private final long[] max;
+	private final double[] centroids;
+
+	/**
+	 * @param numDimensions the number of dimensions of the index image
+	 * @param counts the voxel count of each set
+	 * @param min the bounding box minimum of each set, {@code numDimensions}
+	 *          values per set
+	 * @param max the bounding box maximum of each set, {@code numDimensions}
+	 *          values per set
+	 * @param centroids the centroid of each set, {@code numDimensions} values
+	 *          per set
+	 */
+	public SetStatistics(final int numDimensions, final long[] counts,
+		final long[] min, final long[] max, final double[] centroids)
+	{
+		final long length = (long) numDimensions * counts.length;
+		if (min.length != length || max.length != length ||
+			centroids.length != length)
+		{
+			throw new IllegalArgumentException(
+				"min, max and centroids must hold numDimensions values per set");
+		}
+		this.numDimensions = numDimensions;
+		this.counts = counts;
+		this.min = min;
+		this.max = max;
+		this.centroids = centroids;
+	}
+
+	/**
+	 * Computes the statistics of each set in one pass over the index image,
+	 * split into slabs along its last dimension that are scanned in parallel.
+	 * Pixels with an index outside {@code 0..numSets-1} are ignored. Sets
+	 * without pixels have a count of 0, an empty bounding box (max below min)
+	 * and a centroid at the origin.
+	 *
+	 * @param indexImg the index image
+	 * @param numSets the number of label sets
+	 * @return the statistics of each set
+	 */
+	public static SetStatistics compute(
+		final RandomAccessibleInterval<? extends IntegerType<?>> indexImg,
+		final int numSets)
+	{
+		final int n = indexImg.numDimensions();
+		final long accumulatorBytes = Math.max(1L, 8L * numSets * (1 + 3L * n));
+		return reduceSlabs(indexImg, accumulatorBytes, slab -> {
+			final Accumulator accumulator = new Accumulator(numSets, n);
+			accumulator.add(slab);
+			return accumulator;
+		}, Accumulator::merge).toStatistics();
+	}
+
+	/**
+	 * Counts the pixels of each set in one pass over the index image, split
+	 * into slabs like {@link #compute}. Pixels with an index outside
+	 * {@code 0..numSets-1} are ignored.
+	 *
+	 * @param indexImg the index image
+	 * @param numSets the number of label sets
+	 * @return the voxel count of each set
+	 */
+	public static long[] histogram(
+		final RandomAccessibleInterval<? extends IntegerType<?>> indexImg,
+		final int numSets)
+	{
+		return reduceSlabs(indexImg, Math.max(1L, 8L * numSets), slab -> {
+			final long[] counts = new long[numSets];
+			for (final IntegerType<?> pixel : Views.flatIterable(slab)) {
+				final long index = pixel.getIntegerLong();
+				if (index >= 0 && index < numSets) {
+					counts[(int) index]++;
+				}
+			}
+			return counts;
+		}, (a, b) -> {
+			for (int i = 0; i < a.length; i++) {
+				a[i] += b[i];
+			}
+			return a;
+		});
+	}
+
+	/**
+	 * Scans slabs along the last dimension in parallel, one per processor at
+	 * most, and merges their results.
+	 */
+	private static <A> A reduceSlabs(
+		final RandomAccessibleInterval<? extends IntegerType<?>> indexImg,
+		final long accumulatorBytes,
+		final Function<RandomAccessibleInterval<? extends IntegerType<?>>, A> scan,
+		final BinaryOperator<A> merge)
+	{
+		final int n = indexImg.numDimensions();
+		final long[] imgMin = Intervals.minAsLongArray(indexImg);
+		final long[] imgMax = Intervals.maxAsLongArray(indexImg);
+		final long depth = indexImg.dimension(n - 1);
+		final int numTasks = (int) Math.max(1L, Math.min(Math.min(Runtime
+			.getRuntime().availableProcessors(), depth), MAX_ACCUMULATOR_BYTES /
+				accumulatorBytes));
+		return IntStream.range(0, numTasks).parallel().mapToObj(task -> {
+			final long[] slabMin = imgMin.clone();
+			final long[] slabMax = imgMax.clone();
+			slabMin[n - 1] = imgMin[n - 1] + depth * task / numTasks;
+			slabMax[n - 1] = imgMin[n - 1] + depth * (task + 1) / numTasks - 1;
+			return scan.apply(Views.interval(indexImg, slabMin, slabMax));
+		}).reduce(merge).get();
+	}
+
+	public int numDimensions() {
+		return this.numDimensions;
+	}
+
+	public int numSets() {
+		return this.counts.length;
+	}
+
+	public long count(final int set) {
+		return this.counts[set];
+	}
+
+	public long min(final int set, final int d) {
+		return this.min[set * this.numDimensions + d];
+	}
+
+	public long max(final int set, final int d) {
+		return this.max[set * this.numDimensions + d];
+	}
+
+	public double centroid(final int set, final int d) {
+		return this.centroids[set * this.numDimensions + d];
+	}
+
+	/**
+	 * @return the backing array of voxel counts; do not modify
+	 */
+	public long[] counts() {
+		return this.counts;
+	}
+
+	/**
+	 * @return the backing array of bounding box minima; do not modify
+	 */
+	public long[] min() {
+		return this.min;
+	}
+
+	/**
+	 * @return the backing array of bounding box maxima; do not modify
+	 */
+	public long[] max() {
+		return this.max;
+	}
+
+	/**
+	 * @return the backing array of centroids; do not modify
+	 */
+	public double[] centroids() {
+		return this.centroids;
+	}
+
+	@Override
+	public boolean equals(final Object o) {
+		if (this == o) return true;
+		if (o == null || this.getClass() != o.getClass()) return false;
+		final SetStatistics that = (SetStatistics) o;
+		return this.numDimensions == that.numDimensions && Arrays.equals(
+			this.counts, that.counts) && Arrays.equals(this.min, that.min) && Arrays
+				.equals(this.max, that.max) && Arrays.equals(this.centroids,
+					that.centroids);
+	}
+
+	@Override
+	public int hashCode() {
+		return 31 * Arrays.hashCode(this.counts) + Arrays.hashCode(this.min);
+	}
+
+	/**
+	 * Sums up the counts, bounds and coordinates of the pixels of one slab.
+	 */
+	private static class Accumulator {
+
+		private final int n;
+		private final long[] counts;
+		private final long[] min;
+		private final long[] max;
+		private final double[] sums;
+
+		private Accumulator(final int numSets, final int n) {
+			this.n = n;
+			this.counts = new long[numSets];
+			this.min = new long[numSets * n];
+			this.max = new long[numSets * n];
+			this.sums = new double[numSets * n];
+			Arrays.fill(this.min, Long.MAX_VALUE);
+			Arrays.fill(this.max, Long.MIN_VALUE);
+		}
+
+		private void add(
+			final RandomAccessibleInterval<? extends IntegerType<?>> slab)
+		{
+			final long[] position = new long[this.n];
+			final Cursor<? extends IntegerType<?>> cursor = Views.flatIterable(slab)
+				.localizingCursor();
+			while (cursor.hasNext()) {
+				final long index = cursor.next().getIntegerLong();
+				if (index < 0 || index >= this.counts.length) {
+					continue;
+				}
+				cursor.localize(position);
+				this.counts[(int) index]++;
+				final int offset = (int) index * this.n;
+				for (int d = 0; d < this.n; d++) {
+					final long p = position[d];
+					if (p < this.min[offset + d]) this.min[offset + d] = p;
+					if (p > this.max[offset + d]) this.max[offset + d] = p;
+					this.sums[offset + d] += p;
+				}
+			}
+		}
+
+		private Accumulator merge(final Accumulator other) {
+			for (int i = 0; i < this.counts.length; i++) {
+				this.counts[i] += other.counts[i];
+			}
+			for (int i = 0; i < this.min.length; i++) {
+				this.min[i] = Math.min(this.min[i], other.min[i]);
+				this.max[i] = Math.max(this.max[i], other.max[i]);
+				this.sums[i] += other.sums[i];
+			}
+			return this;
+		}
+
+		private SetStatistics toStatistics() {
+			for (int i = 0; i < this.counts.length; i++) {
+				for (int k = i * this.n; k < (i + 1) * this.n; k++) {
+					if (this.counts[i] == 0) {
+						this.min[k] = 0;
+						this.max[k] = -1;
+					}
+					else {
+						this.sums[k] /= this.counts[i];
+					}
+				}
+			}
+			return new SetStatistics(this.n, this.counts, this.min, this.max,
+				this.sums);
+		}
+	}
+}
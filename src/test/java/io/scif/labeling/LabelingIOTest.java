@@ -30,30 +30,66 @@
 package io.scif.labeling;
 
 import com.google.gson.GsonBuilder;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonParser;
+import com.google.gson.TypeAdapter;
 import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonReader;
+import com.google.gson.stream.JsonWriter;
 
+import io.scif.labeling.config.LabelingIOConfig;
 import io.scif.labeling.data.Container;
+import io.scif.labeling.data.LabelStatistics;
+import io.scif.labeling.data.LabelingDescriptor;
+import io.scif.labeling.data.MultiSourceLabeling;
+import io.scif.labeling.data.PhaseTiming;
+import io.scif.labeling.utils.LabelingCache;
+import io.scif.labeling.utils.LabelingUtil;
+import io.scif.services.DatasetIOService;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.Reader;
 import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import net.imglib2.Cursor;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
 import net.imglib2.img.Img;
 import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.labeling.data.LabelingData;
 import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelingType;
 import net.imglib2.type.numeric.integer.IntType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
 
+import org.junit.After;
 import org.junit.AfterClass;
 import org.junit.Assert;
 import org.junit.BeforeClass;
@@ -74,6 +110,12 @@ public class LabelingIOTest {
 		context.dispose();
 	}
 
+	@After
+	public void removeLabelCodecs() {
+		context.getService(LabelingIOService.class).unregisterLabelCodec(
+			Example.class);
+	}
+
 	@Test
 	public void testEquality() throws IOException {
 		final LabelingIOService labelingIOService = context.getService(
@@ -103,6 +145,103 @@ public class LabelingIOTest {
 			.getMapping().getLabels());
 	}
 
+	@Test
+	public void testNarrowIndexImg() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getStringImgLabeling();
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString());
+		final String tif = LabelingUtil.getFilePathWithExtension(tempFile
+			.toString(), LabelingUtil.TIF_ENDING, tempFile.getParent().toString());
+		Assert.assertTrue(context.getService(DatasetIOService.class).open(tif)
+			.getImgPlus().getImg().getType() instanceof UnsignedByteType);
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class);
+		Assert.assertTrue(imgLabeling2.getIndexImg().getType() instanceof IntType);
+		assertLabelingsEqual(imgLabeling, imgLabeling2);
+	}
+
+	@Test
+	public void testNarrowIndexImgGainsSets() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final int numSets = 3;
+		final int[] indices = new int[numSets];
+		final List<Set<Integer>> labelSets = new ArrayList<>();
+		labelSets.add(Collections.emptySet());
+		for (int i = 1; i < numSets; i++) {
+			indices[i] = i;
+			labelSets.add(Collections.singleton(i));
+		}
+		final Path tempFile = mktemp();
+		labelingIOService.save(ImgLabeling.fromImageAndLabelSets(ArrayImgs.ints(
+			indices, numSets), labelSets), tempFile.toString());
+		// NB: 3 sets are stored as unsigned bytes
+		final ImgLabeling<Integer, IntType> imgLabeling = labelingIOService.load(
+			tempFile.toString(), Integer.class, IntType.class);
+		final RandomAccess<LabelingType<Integer>> access = imgLabeling
+			.randomAccess();
+		for (int i = 0; i < 300; i++) {
+			access.setPosition(i % numSets, 0);
+			access.get().add(numSets + i);
+		}
+		Assert.assertTrue(imgLabeling.getMapping().numSets() > 256);
+	}
+
+	@Test
+	public void testLazyLoad() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<Integer, IntType> imgLabeling = labelingIOService.load(
+			"src/test/resources/labeling/test", Integer.class, IntType.class);
+		final ImgLabeling<Integer, IntType> lazy = labelingIOService.load(
+			"src/test/resources/labeling/test", Integer.class, IntType.class,
+			new LabelingIOConfig().loaderSetLazy(true));
+		Assert.assertEquals(imgLabeling.getMapping().getLabels(), lazy.getMapping()
+			.getLabels());
+		assertLabelingsEqual(imgLabeling, lazy);
+	}
+
+	@Test
+	public void testBinaryRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getStringImgLabeling();
+		final String file = mktemp().toString() + LabelingUtil.BIN_ENDING;
+		new File(file).deleteOnExit();
+		labelingIOService.save(imgLabeling, file);
+		Assert.assertTrue(LabelingUtil.isBinaryLabeling(Paths.get(file)));
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			file, String.class, IntType.class);
+		for (int i = 0; i < imgLabeling.getMapping().numSets(); i++) {
+			Assert.assertEquals(imgLabeling.getMapping().labelsAtIndex(i),
+				imgLabeling2.getMapping().labelsAtIndex(i));
+		}
+	}
+
+	@Test
+	public void testLabelingDataJsonRoundTrip() throws IOException {
+		final Type type = TypeToken.getParameterized(LabelingData.class,
+			Object.class, JsonElement.class).getType();
+		for (final String name : new String[] { "test", "labelSaveTestSimpleMeta",
+			"labelSaveTestComplexMeta" })
+		{
+			final Path path = Paths.get("src/test/resources/labeling", name +
+				".lbl.json");
+			final LabelingData<Object, JsonElement> labelingData;
+			try (final Reader reader = Files.newBufferedReader(path)) {
+				labelingData = new GsonBuilder().create().fromJson(reader, type);
+			}
+			final String json = new GsonBuilder().create().toJson(labelingData,
+				type);
+			try (final Reader reader = Files.newBufferedReader(path)) {
+				Assert.assertEquals(JsonParser.parseReader(reader), JsonParser
+					.parseString(json));
+			}
+		}
+	}
+
 	@Test
 	public void saveLabelingWithMetadataPrimitiveTest() throws IOException {
 		final ImgLabeling<Integer, UnsignedByteType> labeling =
@@ -149,6 +288,604 @@ public class LabelingIOTest {
 			mapping.getMapping().getLabels());
 	}
 
+	@Test
+	public void testStringLabelRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getStringImgLabeling();
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString());
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class);
+		Assert.assertEquals(imgLabeling.getMapping().numSets(), imgLabeling2
+			.getMapping().numSets());
+		for (int i = 0; i < imgLabeling.getMapping().numSets(); i++) {
+			Assert.assertEquals(imgLabeling.getMapping().labelsAtIndex(i),
+				imgLabeling2.getMapping().labelsAtIndex(i));
+		}
+	}
+
+	@Test
+	public void testAsyncRoundTrip() throws Exception {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getStringImgLabeling();
+		final Path tempFile = mktemp();
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final LabelingIOConfig config = new LabelingIOConfig()
+				.asyncSetExecutor(executor);
+			labelingIOService.saveWithMetaDataAsync(imgLabeling, tempFile
+				.toString(), new Example("a", 1.0, 1), config).get();
+			final Container<Example, String, IntType> container = labelingIOService
+				.loadWithMetadataAsync(tempFile.toString(), Example.class,
+					String.class, IntType.class, config).get();
+			final ImgLabeling<String, IntType> imgLabeling2 = container
+				.getImgLabeling();
+			Assert.assertEquals(new Example("a", 1.0, 1), container.getMetadata());
+			Assert.assertEquals(imgLabeling.getMapping().numSets(), imgLabeling2
+				.getMapping().numSets());
+			for (int i = 0; i < imgLabeling.getMapping().numSets(); i++) {
+				Assert.assertEquals(imgLabeling.getMapping().labelsAtIndex(i),
+					imgLabeling2.getMapping().labelsAtIndex(i));
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testAsyncSaveAfterFailedIndexImg() throws Exception {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path tempFile = mktemp();
+		// NB: a directory in place of the index image makes its write fail
+		final Path tif = Paths.get(LabelingUtil.getFilePathWithExtension(tempFile
+			.toString(), LabelingUtil.TIF_ENDING, tempFile.getParent().toString()));
+		Files.createDirectory(tif);
+		tif.toFile().deleteOnExit();
+		final ExecutorService executor = Executors.newFixedThreadPool(2);
+		try {
+			final CompletableFuture<Void> future = labelingIOService.saveAsync(
+				getStringImgLabeling(), tempFile.toString(), new LabelingIOConfig()
+					.asyncSetExecutor(executor));
+			try {
+				future.get();
+				Assert.fail("The index image write did not fail");
+			}
+			catch (final ExecutionException e) {
+				// NB: expected
+			}
+			Assert.assertFalse(Files.exists(Paths.get(LabelingUtil
+				.getFilePathWithExtension(tempFile.toString(), LabelingUtil.LBL_ENDING,
+					tempFile.getParent().toString()))));
+		}
+		finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testBatchRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path directory = Files.createTempDirectory("labelings");
+		final List<Container<Example, String, IntType>> containers =
+			new ArrayList<>();
+		for (int i = 0; i < 5; i++) {
+			final Container<Example, String, IntType> container = new Container<>();
+			container.setImgLabeling(getStringImgLabeling());
+			container.setMetadata(new Example("a", 1.0, i));
+			container.setFile(directory.resolve("labeling" + i +
+				LabelingUtil.LBL_ENDING).toString());
+			containers.add(container);
+		}
+		final LabelingIOConfig config = new LabelingIOConfig()
+			.batchSetParallelism(2).batchSetReadAhead(1).batchSetOrdered(false);
+		labelingIOService.saveAll(containers, config);
+		final List<String> files = LabelingUtil.listLabelings(directory);
+		Assert.assertEquals(5, files.size());
+		final Iterator<Container<Example, String, IntType>> loaded =
+			labelingIOService.loadAll(files, Example.class, String.class,
+				IntType.class, config);
+		final Set<String> seen = new TreeSet<>();
+		while (loaded.hasNext()) {
+			final Container<Example, String, IntType> container = loaded.next();
+			final int i = files.indexOf(container.getFile());
+			Assert.assertEquals(new Example("a", 1.0, i), container.getMetadata());
+			Assert.assertEquals(4, container.getImgLabeling().getMapping()
+				.numSets());
+			seen.add(container.getFile());
+		}
+		Assert.assertEquals(new TreeSet<>(files), seen);
+	}
+
+	@Test
+	public void testRegionLoad() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getPlanarImgLabeling();
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString());
+		final Interval interval = Intervals.createMinMax(1, 1, 3, 2);
+		final ImgLabeling<String, IntType> region = labelingIOService.load(
+			tempFile.toString(), interval, String.class, IntType.class);
+		Assert.assertTrue(Intervals.equals(interval, region));
+		Assert.assertEquals(4, region.getMapping().numSets());
+		assertLabelingsEqual(Views.interval(imgLabeling, interval), region);
+	}
+
+	@Test
+	public void testFilteredLoad() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getPlanarImgLabeling();
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString());
+		final ImgLabeling<String, IntType> filtered = labelingIOService
+			.loadFiltered(tempFile.toString(), "b"::equals, String.class,
+				IntType.class, new LabelingIOConfig());
+		Assert.assertEquals(2, filtered.getMapping().numSets());
+		final Cursor<LabelingType<String>> expected = Views.flatIterable(
+			imgLabeling).cursor();
+		final Cursor<LabelingType<String>> actual = Views.flatIterable(filtered)
+			.cursor();
+		while (expected.hasNext()) {
+			Assert.assertEquals(expected.next().contains("b"), actual.next()
+				.contains("b"));
+			Assert.assertFalse(actual.get().contains("a"));
+		}
+	}
+
+	@Test
+	public void testLabelStatistics() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path tempFile = mktemp();
+		labelingIOService.save(getPlanarImgLabeling(), tempFile.toString());
+		Assert.assertTrue(labelingIOService.readLabelStatistics(tempFile
+			.toString(), String.class).isEmpty());
+		labelingIOService.save(getPlanarImgLabeling(), tempFile.toString(), null,
+			new LabelingIOConfig().writerSetComputeStatistics(true));
+		final Map<String, LabelStatistics> statistics = labelingIOService
+			.readLabelStatistics(tempFile.toString(), String.class);
+		Assert.assertEquals(2, statistics.size());
+		final LabelStatistics a = statistics.get("a");
+		Assert.assertEquals(5, a.getVoxelCount());
+		Assert.assertTrue(Intervals.equals(Intervals.createMinMax(1, 0, 3, 2), a
+			.getBoundingBox()));
+		Assert.assertEquals(2.0, a.getCentroid().getDoublePosition(0), 1e-9);
+		Assert.assertEquals(1.0, a.getCentroid().getDoublePosition(1), 1e-9);
+		Assert.assertEquals(4, statistics.get("b").getVoxelCount());
+	}
+
+	@Test
+	public void testCachedLoad() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final LabelingCache cache = labelingIOService.getCache();
+		final Path tempFile = mktemp();
+		labelingIOService.save(getPlanarImgLabeling(), tempFile.toString());
+		final LabelingIOConfig config = new LabelingIOConfig().loaderSetCached(
+			true);
+		final long hits = cache.hits();
+		final long misses = cache.misses();
+		final ImgLabeling<String, IntType> imgLabeling = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class, config);
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class, config);
+		Assert.assertEquals(misses + 1, cache.misses());
+		Assert.assertEquals(hits + 1, cache.hits());
+		Assert.assertEquals(imgLabeling.getMapping().getLabels(), imgLabeling2
+			.getMapping().getLabels());
+		try {
+			imgLabeling2.getIndexImg().randomAccess().setPositionAndGet(0, 0).set(
+				1);
+			Assert.fail("Cached index image must be read-only");
+		}
+		catch (final UnsupportedOperationException e) {
+			// NB: expected
+		}
+		labelingIOService.save(getStringImgLabeling(), tempFile.toString());
+		final ImgLabeling<String, IntType> imgLabeling3 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class, config);
+		Assert.assertEquals(misses + 2, cache.misses());
+		Assert.assertEquals(1, imgLabeling3.getIndexImg().numDimensions());
+		labelingIOService.loadAsync(tempFile.toString(), String.class,
+			IntType.class, config).join();
+		Assert.assertEquals(hits + 2, cache.hits());
+	}
+
+	@Test
+	public void testReadDescriptor() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path tempFile = mktemp();
+		labelingIOService.saveWithMetaData(getPlanarImgLabeling(), tempFile
+			.toString(), new Example("a", 2.0, 3));
+		final LabelingDescriptor<String> descriptor = labelingIOService
+			.readDescriptor(tempFile.toString(), String.class);
+		Assert.assertEquals(4, descriptor.getNumSets());
+		Assert.assertEquals(new TreeSet<>(Arrays.asList("a", "b")), new TreeSet<>(
+			descriptor.getLabels()));
+		Assert.assertArrayEquals(new long[] { 4, 3 }, descriptor.getDimensions());
+		Assert.assertEquals("uint8", descriptor.getPixelType());
+		Assert.assertEquals(new Example("a", 2.0, 3), descriptor.getMetadata(
+			Example.class));
+	}
+
+	@Test
+	public void testSaveWithLabelToId() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path tempFile = mktemp();
+		labelingIOService.saveWithMetaData(getStringImgLabeling(), tempFile
+			.toString(), (final String label) -> label.charAt(0) - 'a' + 1L, null);
+		final ImgLabeling<Integer, IntType> imgLabeling = labelingIOService.load(
+			tempFile.toString(), Integer.class, IntType.class);
+		Assert.assertEquals(4, imgLabeling.getMapping().numSets());
+		Assert.assertEquals(asSet(1, 2), imgLabeling.getMapping().labelsAtIndex(
+			1));
+		Assert.assertEquals(asSet(1, 3, 4), imgLabeling.getMapping().labelsAtIndex(
+			3));
+		Assert.assertTrue(labelingIOService.readLabelStatistics(tempFile
+			.toString(), Integer.class).isEmpty());
+		labelingIOService.saveWithMetaData(getStringImgLabeling(), tempFile
+			.toString(), (final String label) -> label.charAt(0) - 'a' + 1L, null,
+			new LabelingIOConfig().writerSetComputeStatistics(true));
+		Assert.assertEquals(4, labelingIOService.readLabelStatistics(tempFile
+			.toString(), Integer.class).size());
+	}
+
+	@Test
+	public void testLoadWithIdToLabel() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path tempFile = mktemp();
+		labelingIOService.saveWithMetaData(getStringImgLabeling(), tempFile
+			.toString(), (final String label) -> label.charAt(0) - 'a' + 1L,
+			new Example("a", 1.0, 1));
+		final List<Long> calls = new ArrayList<>();
+		final Container<Example, String, IntType> container = labelingIOService
+			.loadWithMetadata(tempFile.toString(), id -> {
+				calls.add(id);
+				return String.valueOf((char) ('a' + id - 1));
+			}, Example.class, IntType.class);
+		final ImgLabeling<String, IntType> imgLabeling = container
+			.getImgLabeling();
+		Assert.assertTrue(imgLabeling.getIndexImg().getType() instanceof IntType);
+		Assert.assertEquals(asSet("a", "b"), imgLabeling.getMapping()
+			.labelsAtIndex(1));
+		Assert.assertEquals(asSet("a", "c", "d"), imgLabeling.getMapping()
+			.labelsAtIndex(3));
+		Assert.assertEquals(4, calls.size());
+		Assert.assertEquals(4, new TreeSet<>(calls).size());
+		Assert.assertEquals(new Example("a", 1.0, 1), container.getMetadata());
+		// NB: without a backing type, the index image keeps the stored type
+		final Container<Example, String, UnsignedByteType> stored =
+			labelingIOService.loadWithMetadata(tempFile.toString(), id -> String
+				.valueOf(id), Example.class);
+		Assert.assertTrue(stored.getImgLabeling().getIndexImg()
+			.getType() instanceof UnsignedByteType);
+	}
+
+	@Test
+	public void testCompressedRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getPlanarImgLabeling();
+		final Path tempFile = mktemp();
+		// NB: the JSON file of an earlier save must not shadow the gzipped one
+		labelingIOService.save(getStringImgLabeling(), tempFile.toString());
+		labelingIOService.save(imgLabeling, tempFile.toString(), null,
+			new LabelingIOConfig().writerSetCompression(
+				LabelingIOConfig.COMPRESSION_LZW).writerSetGzip(true));
+		final Path gzip = Paths.get(LabelingUtil.getFilePathWithExtension(tempFile
+			.toString(), LabelingUtil.GZIP_ENDING, tempFile.getParent()
+				.toString()));
+		Assert.assertTrue(Files.exists(gzip));
+		Assert.assertFalse(Files.exists(Paths.get(LabelingUtil
+			.getFilePathWithExtension(tempFile.toString(), LabelingUtil.LBL_ENDING,
+				tempFile.getParent().toString()))));
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class);
+		for (int i = 0; i < imgLabeling.getMapping().numSets(); i++) {
+			Assert.assertEquals(imgLabeling.getMapping().labelsAtIndex(i),
+				imgLabeling2.getMapping().labelsAtIndex(i));
+		}
+		assertLabelingsEqual(imgLabeling, imgLabeling2);
+	}
+
+	@Test
+	public void testCompactingSave() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getPlanarImgLabeling();
+		// NB: clear the only pixel of the set {b}, which is then unreferenced
+		final RandomAccess<IntType> access = imgLabeling.getIndexImg()
+			.randomAccess();
+		access.setPosition(new long[] { 1, 1 });
+		access.get().set(0);
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString(), null,
+			new LabelingIOConfig().writerSetCompact(true));
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class);
+		Assert.assertEquals(3, imgLabeling2.getMapping().numSets());
+		Assert.assertEquals(asSet("a", "b"), imgLabeling2.getMapping()
+			.labelsAtIndex(2));
+		assertLabelingsEqual(imgLabeling, imgLabeling2);
+	}
+
+	@Test
+	public void testStreamingRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final int[] indices = new int[5 * 4 * 3];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = i % 7 % 4;
+		}
+		final ImgLabeling<String, IntType> imgLabeling = ImgLabeling
+			.fromImageAndLabelSets(ArrayImgs.ints(indices, 5, 4, 3), Arrays.asList(
+				asSet(), asSet("a"), asSet("b"), asSet("a", "b")));
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString(), null,
+			new LabelingIOConfig().writerSetStreaming(true));
+		// NB: the streamed file has the 60 bytes of pixels before the directory
+		final ByteBuffer tif = ByteBuffer.wrap(Files.readAllBytes(Paths.get(
+			LabelingUtil.getFilePathWithExtension(tempFile.toString(),
+				LabelingUtil.TIF_ENDING, tempFile.getParent().toString())))).order(
+					ByteOrder.LITTLE_ENDIAN);
+		Assert.assertEquals(8 + 60, tif.getInt(4));
+		final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), String.class, IntType.class);
+		assertLabelingsEqual(imgLabeling, imgLabeling2);
+	}
+
+	@Test
+	public void testPhaseTimings() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final List<PhaseTiming> timings = new ArrayList<>();
+		final LabelingIOListener listener = timings::add;
+		labelingIOService.addListener(listener);
+		try {
+			final Path tempFile = mktemp();
+			labelingIOService.save(getPlanarImgLabeling(), tempFile.toString());
+			labelingIOService.load(tempFile.toString(), String.class,
+				IntType.class);
+		}
+		finally {
+			labelingIOService.removeListener(listener);
+		}
+		final List<PhaseTiming.Phase> phases = new ArrayList<>();
+		for (final PhaseTiming timing : timings) {
+			phases.add(timing.getPhase());
+			Assert.assertTrue(timing.getNanos() >= 0);
+		}
+		Assert.assertEquals(Arrays.asList(PhaseTiming.Phase.WRITE_INDEX_IMG,
+			PhaseTiming.Phase.WRITE_LABELING_FILE,
+			PhaseTiming.Phase.READ_LABELING_FILE, PhaseTiming.Phase.READ_INDEX_IMG,
+			PhaseTiming.Phase.BUILD_LABEL_SETS, PhaseTiming.Phase.BUILD_LABELING),
+			phases);
+		Assert.assertEquals(12, timings.get(0).getCount());
+		Assert.assertTrue(timings.get(1).getBytes() > 0);
+		Assert.assertEquals(4, timings.get(2).getCount());
+	}
+
+	@Test
+	public void testStreamRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getPlanarImgLabeling();
+		final ByteArrayOutputStream out = new ByteArrayOutputStream();
+		labelingIOService.saveWithMetaData(imgLabeling, out, new Example("a",
+			2.0, 1));
+		final Container<Example, String, IntType> container = labelingIOService
+			.loadWithMetadata(new ByteArrayInputStream(out.toByteArray()),
+				Example.class, String.class, IntType.class);
+		Assert.assertEquals(new Example("a", 2.0, 1), container.getMetadata());
+		assertLabelingsEqual(imgLabeling, container.getImgLabeling());
+	}
+
+	@Test
+	public void testBundleRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		// NB: the string labeling has a single dimension
+		for (final ImgLabeling<String, IntType> imgLabeling : Arrays.asList(
+			getPlanarImgLabeling(), getStringImgLabeling()))
+		{
+			for (final boolean gzip : new boolean[] { false, true }) {
+				final Path file = Paths.get(mktemp() + LabelingUtil.ZIP_ENDING);
+				file.toFile().deleteOnExit();
+				labelingIOService.save(imgLabeling, file.toString(), null,
+					new LabelingIOConfig().writerSetGzip(gzip)
+						.writerSetComputeStatistics(true));
+				Assert.assertFalse(Files.exists(Paths.get(LabelingUtil
+					.getFilePathWithExtension(file.toString(), LabelingUtil.TIF_ENDING,
+						file.getParent().toString()))));
+				final ImgLabeling<String, IntType> imgLabeling2 = labelingIOService
+					.load(file.toString(), String.class, IntType.class);
+				assertLabelingsEqual(imgLabeling, imgLabeling2);
+				Assert.assertFalse(labelingIOService.readLabelStatistics(file
+					.toString(), String.class).isEmpty());
+			}
+		}
+	}
+
+	@Test
+	public void testBundleRegionAndDescriptor() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<String, IntType> imgLabeling = getPlanarImgLabeling();
+		final Path file = Paths.get(mktemp() + LabelingUtil.ZIP_ENDING);
+		file.toFile().deleteOnExit();
+		labelingIOService.save(imgLabeling, file.toString());
+		final LabelingDescriptor<String> descriptor = labelingIOService
+			.readDescriptor(file.toString(), String.class);
+		Assert.assertArrayEquals(new long[] { 4, 3 }, descriptor
+			.getDimensions());
+		Assert.assertEquals("uint8", descriptor.getPixelType());
+		final Interval interval = Intervals.createMinMax(1, 1, 2, 2);
+		final ImgLabeling<String, IntType> region = labelingIOService.load(file
+			.toString(), interval, String.class, IntType.class);
+		Assert.assertTrue(Intervals.equals(interval, region));
+		assertLabelingsEqual(Views.interval(imgLabeling, interval), region);
+	}
+
+	@Test
+	public void testBundleWithLabelIds() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final Path file = Paths.get(mktemp() + LabelingUtil.ZIP_ENDING);
+		file.toFile().deleteOnExit();
+		labelingIOService.saveWithMetaData(getPlanarImgLabeling(), file
+			.toString(), label -> label.charAt(0), null);
+		Assert.assertFalse(Files.exists(Paths.get(LabelingUtil
+			.getFilePathWithExtension(file.toString(), LabelingUtil.LBL_ENDING,
+				file.getParent().toString()))));
+		final ImgLabeling<Integer, IntType> imgLabeling = labelingIOService.load(
+			file.toString(), Integer.class, IntType.class);
+		Assert.assertEquals(new HashSet<>(Arrays.asList((int) 'a', (int) 'b')),
+			imgLabeling.getMapping().labelsAtIndex(3));
+	}
+
+	@Test
+	public void testMultiSourceRoundTrip() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final List<Set<String>> labelSets = Arrays.asList(Collections.emptySet(),
+			Collections.singleton("a"), new HashSet<>(Arrays.asList("b", "c")));
+		final MultiSourceLabeling<String, IntType> labeling = MultiSourceLabeling
+			.of(labelSets, Arrays.asList(ArrayImgs.ints(new int[] { 0, 1, 2, 1 }, 2,
+				2), ArrayImgs.ints(new int[] { 2, 0, 1, 1 }, 2, 2)));
+		final Path tempFile = mktemp();
+		labelingIOService.saveSources(labeling, tempFile.toString(), null,
+			new LabelingIOConfig());
+		for (final boolean lazy : new boolean[] { false, true }) {
+			final MultiSourceLabeling<String, IntType> labeling2 = labelingIOService
+				.loadSources(tempFile.toString(), String.class, IntType.class,
+					new LabelingIOConfig().loaderSetLazy(lazy));
+			Assert.assertEquals(2, labeling2.numSources());
+			assertLabelingsEqual(labeling.getLabels(), labeling2.getLabels());
+		}
+	}
+
+	@Test
+	public void testMultiSourceStreamRejected() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final List<Set<String>> labelSets = Arrays.asList(Collections.emptySet(),
+			Collections.singleton("a"));
+		final MultiSourceLabeling<String, IntType> labeling = MultiSourceLabeling
+			.of(labelSets, Arrays.asList(ArrayImgs.ints(new int[] { 0, 1 }, 2, 1),
+				ArrayImgs.ints(new int[] { 1, 0 }, 2, 1)));
+		final Path file = Paths.get(mktemp() + LabelingUtil.ZIP_ENDING);
+		file.toFile().deleteOnExit();
+		labelingIOService.saveSources(labeling, file.toString(), null,
+			new LabelingIOConfig());
+		try (final InputStream in = Files.newInputStream(file)) {
+			labelingIOService.load(in, String.class, IntType.class);
+			Assert.fail("A stream of several sources must be rejected");
+		}
+		catch (final IOException e) {
+			// NB: expected
+		}
+	}
+
+	@Test
+	public void testLabelCodec() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final AtomicInteger reads = new AtomicInteger();
+		labelingIOService.registerLabelCodec(Example.class,
+			new TypeAdapter<Example>()
+			{
+
+				@Override
+				public void write(final JsonWriter out, final Example label)
+					throws IOException
+				{
+					out.beginArray().value(label.a).value(label.b).value(label.c)
+						.endArray();
+				}
+
+				@Override
+				public Example read(final JsonReader in) throws IOException {
+					reads.incrementAndGet();
+					in.beginArray();
+					final Example label = new Example(in.nextString(), in.nextDouble(),
+						in.nextInt());
+					in.endArray();
+					return label;
+				}
+			});
+		final ImgLabeling<Example, IntType> imgLabeling = ImgLabeling
+			.fromImageAndLabelSets(ArrayImgs.ints(new int[] { 1, 0, 2 }, 3), Arrays
+				.asList(Collections.emptySet(), Collections.singleton(new Example("a",
+					1.0, 1)), new HashSet<>(Arrays.asList(new Example("b", 2.0, 2),
+						new Example("c", 3.0, 3)))));
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString());
+		final ImgLabeling<Example, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), Example.class, IntType.class);
+		Assert.assertEquals(3, reads.get());
+		for (int i = 0; i < imgLabeling.getMapping().numSets(); i++) {
+			Assert.assertEquals(imgLabeling.getMapping().labelsAtIndex(i),
+				imgLabeling2.getMapping().labelsAtIndex(i));
+		}
+		// NB: metadata of a label class is still written by Gson reflection
+		labelingIOService.saveWithMetaData(getStringImgLabeling(), tempFile
+			.toString(), new Example("m", 1.0, 1));
+		try (final Reader reader = Files.newBufferedReader(Paths.get(LabelingUtil
+			.getFilePathWithExtension(tempFile.toString(), LabelingUtil.LBL_ENDING,
+				tempFile.getParent().toString()))))
+		{
+			Assert.assertTrue(JsonParser.parseReader(reader).getAsJsonObject().get(
+				"metadata").isJsonObject());
+		}
+	}
+
+	@Test
+	public void testEmptyLabelingOfCustomType() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<Example, IntType> imgLabeling = ImgLabeling
+			.fromImageAndLabelSets(ArrayImgs.ints(new int[] { 0, 0, 0 }, 3),
+				Collections.singletonList(Collections.emptySet()));
+		final Path tempFile = mktemp();
+		labelingIOService.save(imgLabeling, tempFile.toString());
+		final ImgLabeling<Example, IntType> imgLabeling2 = labelingIOService.load(
+			tempFile.toString(), Example.class, IntType.class);
+		Assert.assertEquals(1, imgLabeling2.getMapping().numSets());
+		Assert.assertTrue(imgLabeling2.getMapping().getLabels().isEmpty());
+	}
+
+	@Test
+	public void testIntegerLabelsAsLong() throws IOException {
+		final LabelingIOService labelingIOService = context.getService(
+			LabelingIOService.class);
+		final ImgLabeling<Long, IntType> imgLabeling = labelingIOService.load(
+			"src/test/resources/labeling/test", Long.class, IntType.class);
+		Assert.assertEquals(new HashSet<>(Arrays.asList(1L, 2L)), imgLabeling
+			.getMapping().labelsAtIndex(2));
+	}
+
+	private static <T> void assertLabelingsEqual(
+		final RandomAccessibleInterval<? extends Set<T>> expected,
+		final RandomAccessibleInterval<? extends Set<T>> actual)
+	{
+		Assert.assertArrayEquals(Intervals.dimensionsAsLongArray(expected),
+			Intervals.dimensionsAsLongArray(actual));
+		final Cursor<? extends Set<T>> e = Views.flatIterable(expected).cursor();
+		final Cursor<? extends Set<T>> a = Views.flatIterable(actual).cursor();
+		while (e.hasNext()) {
+			Assert.assertEquals(e.next(), a.next());
+		}
+	}
+
 	private ImgLabeling<Integer, UnsignedByteType> getSimpleImgLabeling() {
 		final Integer[] values1 = new Integer[] { 42, 13 };
 		final Integer[] values2 = new Integer[] { 1 };
@@ -174,6 +911,23 @@ public class LabelingIOTest {
 		return ImgLabeling.fromImageAndLabelSets(indexImg, labelSets);
 	}
 
+	private ImgLabeling<String, IntType> getPlanarImgLabeling() {
+		final Img<IntType> indexImg = ArrayImgs.ints(new int[] { 0, 1, 1, 0, //
+			0, 2, 3, 0, //
+			0, 0, 3, 3 }, 4, 3);
+		final List<Set<String>> labelSets = Arrays.asList(asSet(), asSet("a"),
+			asSet("b"), asSet("a", "b"));
+		return ImgLabeling.fromImageAndLabelSets(indexImg, labelSets);
+	}
+
+	private ImgLabeling<String, IntType> getStringImgLabeling() {
+		final Img<IntType> indexImg = ArrayImgs.ints(new int[] { 1, 0, 2, 3, 3 },
+			5);
+		final List<Set<String>> labelSets = Arrays.asList(asSet(), asSet("b", "a"),
+			asSet("c"), asSet("a", "c", "d"));
+		return ImgLabeling.fromImageAndLabelSets(indexImg, labelSets);
+	}
+
 	@SuppressWarnings("unchecked")
 	private <T> Set<T> asSet(final T... values) {
 		return new TreeSet<>(Arrays.asList(values));
@@ -0,0 +1,201 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.benchmarks;
+
+import io.scif.labeling.LabelingIOService;
+import io.scif.labeling.config.LabelingIOConfig;
+import io.scif.labeling.utils.LabelingUtil;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.imglib2.FinalInterval;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.roi.labeling.LabelingType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.view.Views;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.scijava.Context;
+
+/**
+ * Measures encode and decode time of each TIFF compression, with and without
+ * a gzipped labeling file, on a 3D labeling of mostly background with
+ * overlapping box-shaped objects. The file sizes are reported as secondary
+ * results of the save benchmark.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LabelingCompressionBenchmark {
+
+	@Param({ LabelingIOConfig.COMPRESSION_UNCOMPRESSED,
+		LabelingIOConfig.COMPRESSION_LZW })
+	private String compression;
+
+	@Param({ "false", "true" })
+	private boolean gzip;
+
+	@Param({ "2000" })
+	private int numObjects;
+
+	private Context context;
+	private LabelingIOService labelingIOService;
+	private ImgLabeling<String, IntType> imgLabeling;
+	private LabelingIOConfig config;
+	private Path directory;
+	private String file;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.context = new Context();
+		this.labelingIOService = this.context.getService(LabelingIOService.class);
+		this.imgLabeling = createLabeling(this.numObjects, 256, 256, 32);
+		this.config = new LabelingIOConfig() //
+			.writerSetCompression(this.compression) //
+			.writerSetGzip(this.gzip);
+		this.directory = Files.createTempDirectory("labeling-benchmark");
+		this.file = this.directory.resolve("labeling").toString();
+		this.labelingIOService.save(this.imgLabeling, this.file, null,
+			this.config);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.context.dispose();
+		try (final Stream<Path> paths = Files.walk(this.directory)) {
+			// NB: the deepest paths first, so that directories are empty
+			for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(
+				Collectors.toList()))
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public void save(final FileSizes sizes) throws IOException {
+		this.labelingIOService.save(this.imgLabeling, this.file, null,
+			this.config);
+		final String parent = this.directory.toString();
+		sizes.indexImgBytes = Files.size(Paths.get(LabelingUtil
+			.getFilePathWithExtension(this.file, LabelingUtil.TIF_ENDING, parent)));
+		sizes.labelingFileBytes = Files.size(Paths.get(LabelingUtil
+			.getFilePathWithExtension(this.file, this.gzip ? LabelingUtil.GZIP_ENDING
+				: LabelingUtil.LBL_ENDING, parent)));
+	}
+
+	@Benchmark
+	public ImgLabeling<String, IntType> load() throws IOException {
+		return this.labelingIOService.load(this.file, String.class,
+			IntType.class);
+	}
+
+	/**
+	 * The sizes of the files of the last save, reported as they are rather than
+	 * per operation.
+	 */
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.EVENTS)
+	public static class FileSizes {
+
+		public long indexImgBytes;
+		public long labelingFileBytes;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			this.indexImgBytes = 0;
+			this.labelingFileBytes = 0;
+		}
+	}
+
+	/**
+	 * Labels random boxes of a few pixels to a few dozen pixels wide; most
+	 * pixels stay background, and overlapping boxes share label sets.
+	 */
+	static ImgLabeling<String, IntType> createLabeling(final int numObjects,
+		final long... dims)
+	{
+		final ImgLabeling<String, IntType> imgLabeling = new ImgLabeling<>(
+			ArrayImgs.ints(dims));
+		final Random random = new Random(42);
+		final long[] min = new long[dims.length];
+		final long[] max = new long[dims.length];
+		for (int i = 0; i < numObjects; i++) {
+			for (int d = 0; d < dims.length; d++) {
+				final long size = 2 + random.nextInt((int) Math.min(dims[d] / 8, 24));
+				min[d] = random.nextInt((int) (dims[d] - size));
+				max[d] = min[d] + size - 1;
+			}
+			final String label = "object" + i;
+			for (final LabelingType<String> pixel : Views.interval(imgLabeling,
+				new FinalInterval(min, max)))
+			{
+				pixel.add(label);
+			}
+		}
+		return imgLabeling;
+	}
+
+	public static void main(final String... args) throws RunnerException {
+		final Options options = new OptionsBuilder() //
+			.include(LabelingCompressionBenchmark.class.getSimpleName()) //
+			.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,259 @@
+/*-
+ * #%L
+ * SCIFIO library for reading and converting scientific file formats.
+ * %%
+ * Copyright (C) 2020 - 2026 SCIFIO developers.
+ * %%
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ * 
+ * 1. Redistributions of source code must retain the above copyright notice,
+ *    this list of conditions and the following disclaimer.
+ * 2. Redistributions in binary form must reproduce the above copyright notice,
+ *    this list of conditions and the following disclaimer in the documentation
+ *    and/or other materials provided with the distribution.
+ * 
+ * THIS SOFTWARE IS PROVIDED BY THE COPYRIGHT HOLDERS AND CONTRIBUTORS "AS IS"
+ * AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE
+ * IMPLIED WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE
+ * ARE DISCLAIMED. IN NO EVENT SHALL THE COPYRIGHT HOLDERS OR CONTRIBUTORS BE
+ * LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR
+ * CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF
+ * SUBSTITUTE GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS
+ * INTERRUPTION) HOWEVER CAUSED AND ON ANY THEORY OF LIABILITY, WHETHER IN
+ * CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR OTHERWISE)
+ * ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE
+ * POSSIBILITY OF SUCH DAMAGE.
+ * #L%
+ */
+
+package io.scif.labeling.benchmarks;
+
+import io.scif.labeling.LabelingIOService;
+import io.scif.labeling.data.Container;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.roi.labeling.ImgLabeling;
+import net.imglib2.type.numeric.IntegerType;
+import net.imglib2.type.numeric.integer.IntType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.scijava.Context;
+
+/**
+ * Measures throughput and latency of {@code load}, {@code loadWithMetadata},
+ * {@code save} and {@code saveWithMetaData} across image sizes and
+ * dimensionalities, backing types, numbers of label sets, label types and
+ * metadata sizes. The inputs are generated from a fixed seed and each fork
+ * runs with a fixed heap. Run {@link #main} to also record allocation rates
+ * with the GC profiler and write the results as JSON, which can be compared
+ * between revisions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({ Mode.Throughput, Mode.SampleTime })
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+public class LabelingIOBenchmark {
+
+	@Param({ "256x256", "1024x1024", "64x64x64" })
+	private String dimensions;
+
+	@Param({ "UnsignedShortType", "IntType" })
+	private String backingType;
+
+	@Param({ "100", "10000" })
+	private int numSets;
+
+	@Param({ "Integer", "String", "CellLabel" })
+	private String labelType;
+
+	@Param({ "0", "1000" })
+	private int metadataEntries;
+
+	private Context context;
+	private LabelingIOService labelingIOService;
+	private Class<?> labelClass;
+	private Class<?> backingClass;
+	private ImgLabeling<?, ?> imgLabeling;
+	private Map<String, Object> metadata;
+	private Path directory;
+	private String loadFile;
+	private String saveFile;
+
+	@Setup
+	public void setUp() throws IOException {
+		this.context = new Context();
+		this.labelingIOService = this.context.getService(LabelingIOService.class);
+		this.labelClass = this.labelType.equals("Integer") ? Integer.class
+			: this.labelType.equals("String") ? String.class : CellLabel.class;
+		this.backingClass = this.backingType.equals("IntType") ? IntType.class
+			: UnsignedShortType.class;
+		final long[] dims = Arrays.stream(this.dimensions.split("x")).mapToLong(
+			Long::parseLong).toArray();
+		final Random random = new Random(42);
+		this.imgLabeling = createLabeling(dims, this.numSets, this.labelClass,
+			this.backingClass, random);
+		this.metadata = new LinkedHashMap<>();
+		for (int i = 0; i < this.metadataEntries; i++) {
+			this.metadata.put("key" + i, random.nextBoolean() ? random.nextDouble()
+				: "value" + random.nextInt());
+		}
+		this.directory = Files.createTempDirectory("labeling-benchmark");
+		this.loadFile = this.directory.resolve("load").toString();
+		this.saveFile = this.directory.resolve("save").toString();
+		this.labelingIOService.saveWithMetaData(this.imgLabeling, this.loadFile,
+			this.metadata);
+	}
+
+	@TearDown
+	public void tearDown() throws IOException {
+		this.context.dispose();
+		try (final Stream<Path> paths = Files.walk(this.directory)) {
+			// NB: the deepest paths first, so that directories are empty
+			for (final Path path : paths.sorted(Comparator.reverseOrder()).collect(
+				Collectors.toList()))
+			{
+				Files.delete(path);
+			}
+		}
+	}
+
+	@Benchmark
+	public void save() throws IOException {
+		this.labelingIOService.save(this.imgLabeling, this.saveFile);
+	}
+
+	@Benchmark
+	public void saveWithMetaData() throws IOException {
+		this.labelingIOService.saveWithMetaData(this.imgLabeling, this.saveFile,
+			this.metadata);
+	}
+
+	@Benchmark
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public ImgLabeling<?, ?> load() throws IOException {
+		return this.labelingIOService.load(this.loadFile, this.labelClass,
+			(Class) this.backingClass);
+	}
+
+	@Benchmark
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	public Container<?, ?, ?> loadWithMetadata() throws IOException {
+		return this.labelingIOService.loadWithMetadata(this.loadFile, Map.class,
+			this.labelClass, (Class) this.backingClass);
+	}
+
+	/**
+	 * Creates a labeling with uniformly distributed set indices. Each set but
+	 * the empty one holds its own label and the label of its third, so labels
+	 * are shared between sets as in overlapping segmentations.
+	 */
+	@SuppressWarnings({ "unchecked", "rawtypes" })
+	static ImgLabeling<?, ?> createLabeling(final long[] dims, final int numSets,
+		final Class<?> labelClass, final Class<?> backingClass,
+		final Random random)
+	{
+		final Img<? extends IntegerType<?>> indexImg =
+			backingClass == IntType.class ? ArrayImgs.ints(dims) : ArrayImgs
+				.unsignedShorts(dims);
+		for (final IntegerType<?> pixel : indexImg) {
+			pixel.setInteger(random.nextInt(numSets));
+		}
+		final List<Set<Object>> labelSets = new ArrayList<>(numSets);
+		labelSets.add(new HashSet<>());
+		for (int i = 1; i < numSets; i++) {
+			final Set<Object> set = new HashSet<>();
+			set.add(label(labelClass, i));
+			set.add(label(labelClass, i / 3));
+			labelSets.add(set);
+		}
+		return ImgLabeling.fromImageAndLabelSets((Img) indexImg, labelSets);
+	}
+
+	private static Object label(final Class<?> labelClass, final int i) {
+		if (labelClass == Integer.class) return i;
+		if (labelClass == String.class) return "label" + i;
+		return new CellLabel("cell" + i, i % 5, new double[] { i, i * 0.5 });
+	}
+
+	/** A label with nested values, serialized as a JSON object. */
+	public static class CellLabel {
+
+		private String name;
+		private int category;
+		private double[] position;
+
+		public CellLabel() {}
+
+		public CellLabel(final String name, final int category,
+			final double[] position)
+		{
+			this.name = name;
+			this.category = category;
+			this.position = position;
+		}
+
+		@Override
+		public boolean equals(final Object o) {
+			if (this == o) return true;
+			if (o == null || this.getClass() != o.getClass()) return false;
+			final CellLabel that = (CellLabel) o;
+			return this.category == that.category && Objects.equals(this.name,
+				that.name) && Arrays.equals(this.position, that.position);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * Objects.hash(this.name, this.category) + Arrays.hashCode(
+				this.position);
+		}
+	}
+
+	public static void main(final String... args) throws RunnerException {
+		final Options options = new OptionsBuilder() //
+			.include(LabelingIOBenchmark.class.getSimpleName()) //
+			.addProfiler(GCProfiler.class) //
+			.resultFormat(ResultFormatType.JSON) //
+			.result("labeling-io-benchmark.json") //
+			.build();
+		new Runner(options).run();
+	}
+}